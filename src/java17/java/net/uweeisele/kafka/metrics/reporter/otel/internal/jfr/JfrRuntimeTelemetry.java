@@ -0,0 +1,166 @@
+package net.uweeisele.kafka.metrics.reporter.otel.internal.jfr;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.DoubleHistogram;
+import io.opentelemetry.api.metrics.LongCounter;
+import io.opentelemetry.api.metrics.Meter;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingStream;
+import net.uweeisele.kafka.metrics.reporter.otel.OtelMetricsReporterConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Derives JVM runtime metrics from a JFR event stream.
+ * <p>
+ * Only the events the metrics are derived from are enabled, with thresholds for GC pauses, safepoints and lock
+ * contention, a throttle for allocation samples and a period for CPU utilization. The stream reuses its event objects,
+ * does not order events and keeps at most one minute of events on disk, which bounds the overhead of the recording.
+ * <p>
+ * Loaded by {@link RuntimeTelemetry}, because event streaming is not available before Java 14.
+ */
+public class JfrRuntimeTelemetry implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(JfrRuntimeTelemetry.class);
+
+    static final String GARBAGE_COLLECTION = "jdk.GarbageCollection";
+    static final String SAFEPOINT_BEGIN = "jdk.SafepointBegin";
+    static final String EXECUTE_VM_OPERATION = "jdk.ExecuteVMOperation";
+    static final String OBJECT_ALLOCATION_SAMPLE = "jdk.ObjectAllocationSample";
+    static final String JAVA_MONITOR_ENTER = "jdk.JavaMonitorEnter";
+    static final String CPU_LOAD = "jdk.CPULoad";
+    static final String THREAD_CPU_LOAD = "jdk.ThreadCPULoad";
+
+    private static final AttributeKey<String> GC_KEY = AttributeKey.stringKey("gc");
+    private static final AttributeKey<String> CAUSE_KEY = AttributeKey.stringKey("cause");
+    private static final AttributeKey<String> OPERATION_KEY = AttributeKey.stringKey("operation");
+    private static final AttributeKey<String> MODE_KEY = AttributeKey.stringKey("mode");
+    private static final Attributes USER = Attributes.of(MODE_KEY, "user");
+    private static final Attributes SYSTEM = Attributes.of(MODE_KEY, "system");
+
+    private final RecordingStream stream;
+    private final DoubleHistogram gcPauses;
+    private final DoubleHistogram safepointSyncs;
+    private final DoubleHistogram safepointOperations;
+    private final LongCounter allocatedBytes;
+    private final DoubleHistogram lockContentions;
+    private final DoubleHistogram threadCpuUtilization;
+    private final List<AutoCloseable> observables;
+
+    // Attributes of the few distinct collectors, causes and VM operations, so that recording events does not allocate.
+    private final Map<String, Map<String, Attributes>> gcAttributes = new ConcurrentHashMap<>();
+    private final Map<String, Attributes> operationAttributes = new ConcurrentHashMap<>();
+
+    private volatile double jvmUser = Double.NaN;
+    private volatile double jvmSystem = Double.NaN;
+    private volatile double machineTotal = Double.NaN;
+
+    public JfrRuntimeTelemetry(Meter meter, OtelMetricsReporterConfig config) {
+        gcPauses = meter.histogramBuilder("jvm.gc.pause.duration").setUnit("s")
+                .setDescription("The time application threads were paused by a garbage collection.").build();
+        safepointSyncs = meter.histogramBuilder("jvm.safepoint.sync.duration").setUnit("s")
+                .setDescription("The time it took to bring all threads to a safepoint.").build();
+        safepointOperations = meter.histogramBuilder("jvm.safepoint.operation.duration").setUnit("s")
+                .setDescription("The time VM operations took at a safepoint.").build();
+        allocatedBytes = meter.counterBuilder("jvm.memory.allocated").setUnit("By")
+                .setDescription("The estimated number of bytes allocated on the heap, derived from allocation samples.").build();
+        lockContentions = meter.histogramBuilder("jvm.lock.contention.duration").setUnit("s")
+                .setDescription("The time threads waited to enter a contended monitor.").build();
+        threadCpuUtilization = meter.histogramBuilder("jvm.thread.cpu.utilization").setUnit("1")
+                .setDescription("The CPU utilization of the threads of the JVM, one value per thread and period.").build();
+        observables = List.of(
+                meter.gaugeBuilder("jvm.cpu.utilization").setUnit("1")
+                        .setDescription("The CPU utilization of the JVM.")
+                        .buildWithCallback(measurement -> {
+                            record(measurement::record, jvmUser, USER);
+                            record(measurement::record, jvmSystem, SYSTEM);
+                        }),
+                meter.gaugeBuilder("system.cpu.utilization").setUnit("1")
+                        .setDescription("The CPU utilization of the machine.")
+                        .buildWithCallback(measurement -> record(measurement::record, machineTotal, Attributes.empty())));
+
+        stream = new RecordingStream();
+        stream.setReuse(true);
+        stream.setOrdered(false);
+        stream.setMaxAge(Duration.ofMinutes(1));
+        stream.enable(GARBAGE_COLLECTION).withThreshold(config.jfrGcThreshold());
+        stream.enable(SAFEPOINT_BEGIN).withThreshold(config.jfrSafepointThreshold());
+        stream.enable(EXECUTE_VM_OPERATION).withThreshold(config.jfrSafepointThreshold());
+        stream.enable(JAVA_MONITOR_ENTER).withThreshold(config.jfrLockThreshold()).withoutStackTrace();
+        if (config.jfrAllocationSamplesPerSecond() > 0) {
+            stream.enable(OBJECT_ALLOCATION_SAMPLE).with("throttle", config.jfrAllocationSamplesPerSecond() + "/s").withoutStackTrace();
+        }
+        stream.enable(CPU_LOAD).withPeriod(config.jfrCpuPeriod());
+        stream.enable(THREAD_CPU_LOAD).withPeriod(config.jfrCpuPeriod());
+        stream.onEvent(GARBAGE_COLLECTION, this::onGarbageCollection);
+        stream.onEvent(SAFEPOINT_BEGIN, event -> safepointSyncs.record(seconds(event.getDuration())));
+        stream.onEvent(EXECUTE_VM_OPERATION, this::onVmOperation);
+        stream.onEvent(JAVA_MONITOR_ENTER, event -> lockContentions.record(seconds(event.getDuration())));
+        stream.onEvent(OBJECT_ALLOCATION_SAMPLE, event -> allocatedBytes.add(event.getLong("weight")));
+        stream.onEvent(CPU_LOAD, this::onCpuLoad);
+        stream.onEvent(THREAD_CPU_LOAD, event -> threadCpuUtilization.record(event.getFloat("user") + event.getFloat("system")));
+        stream.onError(e -> log.warn("Error occurred processing JFR event", e));
+        stream.startAsync();
+        log.info("Started JFR runtime telemetry");
+    }
+
+    private void onGarbageCollection(RecordedEvent event) {
+        String gc = nonNull(event.getString("name"));
+        String cause = nonNull(event.getString("cause"));
+        Attributes attributes = gcAttributes
+                .computeIfAbsent(gc, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(cause, k -> Attributes.of(GC_KEY, gc, CAUSE_KEY, cause));
+        gcPauses.record(seconds(event.getDuration("sumOfPauses")), attributes);
+    }
+
+    private void onVmOperation(RecordedEvent event) {
+        if (!event.getBoolean("safepoint")) {
+            return;
+        }
+        Attributes attributes = operationAttributes.computeIfAbsent(nonNull(event.getString("operation")), k -> Attributes.of(OPERATION_KEY, k));
+        safepointOperations.record(seconds(event.getDuration()), attributes);
+    }
+
+    private void onCpuLoad(RecordedEvent event) {
+        jvmUser = event.getFloat("jvmUser");
+        jvmSystem = event.getFloat("jvmSystem");
+        machineTotal = event.getFloat("machineTotal");
+    }
+
+    private static String nonNull(String value) {
+        return value != null ? value : "";
+    }
+
+    private static double seconds(Duration duration) {
+        return duration.toNanos() / 1_000_000_000.0;
+    }
+
+    private interface Recorder {
+        void record(double value, Attributes attributes);
+    }
+
+    private static void record(Recorder recorder, double value, Attributes attributes) {
+        if (!Double.isNaN(value)) {
+            recorder.record(value, attributes);
+        }
+    }
+
+    @Override
+    public void close() {
+        stream.close();
+        for (AutoCloseable observable : observables) {
+            try {
+                observable.close();
+            } catch (Exception e) {
+                log.warn("Error occurred closing observable {}", observable, e);
+            }
+        }
+        log.info("Stopped JFR runtime telemetry");
+    }
+}
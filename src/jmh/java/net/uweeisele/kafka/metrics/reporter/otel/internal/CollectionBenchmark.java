@@ -0,0 +1,79 @@
+package net.uweeisele.kafka.metrics.reporter.otel.internal;
+
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
+import com.yammer.metrics.core.Timer;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.testing.exporter.InMemoryMetricReader;
+import net.uweeisele.kafka.metrics.reporter.otel.OtelMetricsReporterConfig;
+import net.uweeisele.kafka.metrics.reporter.otel.internal.kafka.OtelKafkaMetricsReporter;
+import net.uweeisele.kafka.metrics.reporter.otel.internal.yammer.OtelYammerMetricsReporter;
+import org.apache.kafka.common.metrics.KafkaMetric;
+import org.apache.kafka.common.metrics.KafkaMetricsContext;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a full collection cycle through an in-memory {@link io.opentelemetry.sdk.metrics.export.MetricReader}:
+ * all callbacks of both reporters, the aggregation in the SDK and the creation of the metric data.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CollectionBenchmark {
+
+    private static final int YAMMER_TIMERS = 100;
+
+    @Param({"1000", "10000"})
+    public int kafkaMetrics;
+
+    @Param({"false", "true"})
+    public boolean batched;
+
+    private InMemoryMetricReader metricReader;
+    private SdkMeterProvider meterProvider;
+    private MetricsRegistry metricsRegistry;
+    private OtelKafkaMetricsReporter kafkaReporter;
+    private OtelYammerMetricsReporter yammerReporter;
+
+    @Setup
+    public void setup() {
+        metricReader = InMemoryMetricReader.create();
+        meterProvider = SdkMeterProvider.builder().registerMetricReader(metricReader).build();
+        OtelMetricsReporterConfig config = new OtelMetricsReporterConfig(Map.of(OtelMetricsReporterConfig.BATCH_CALLBACKS_ENABLED_CONFIG, batched));
+        Context context = new Context().setMetricsContext(new KafkaMetricsContext("kafka.server"));
+        kafkaReporter = new OtelKafkaMetricsReporter(meterProvider.get("kafka"), context, config);
+        for (KafkaMetric metric : ReporterRegistrationBenchmark.newKafkaMetrics(kafkaMetrics)) {
+            kafkaReporter.metricChange(metric);
+        }
+        yammerReporter = new OtelYammerMetricsReporter(meterProvider.get("yammer"), context, config);
+        metricsRegistry = new MetricsRegistry();
+        metricsRegistry.addListener(yammerReporter);
+        for (int i = 0; i < YAMMER_TIMERS; i++) {
+            Timer timer = metricsRegistry.newTimer(new MetricName("kafka.network", "RequestMetrics", "TotalTimeMs", null,
+                    "kafka.network:type=RequestMetrics,name=TotalTimeMs,request=Request" + i), TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
+            for (int j = 0; j < 100; j++) {
+                timer.update(j, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        kafkaReporter.close();
+        yammerReporter.close();
+        metricsRegistry.shutdown();
+        meterProvider.close();
+    }
+
+    @Benchmark
+    public void collect(Blackhole blackhole) {
+        blackhole.consume(metricReader.collectAllMetrics());
+    }
+}
@@ -0,0 +1,106 @@
+package net.uweeisele.kafka.metrics.reporter.otel.internal;
+
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.testing.exporter.InMemoryMetricReader;
+import net.uweeisele.kafka.metrics.reporter.otel.OtelMetricsReporterConfig;
+import net.uweeisele.kafka.metrics.reporter.otel.internal.kafka.OtelKafkaMetricsReporter;
+import net.uweeisele.kafka.metrics.reporter.otel.internal.yammer.OtelYammerMetricsReporter;
+import org.apache.kafka.common.metrics.KafkaMetric;
+import org.apache.kafka.common.metrics.KafkaMetricsContext;
+import org.apache.kafka.common.metrics.MetricConfig;
+import org.apache.kafka.common.metrics.stats.CumulativeSum;
+import org.apache.kafka.common.utils.Time;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Many threads concurrently adding and removing metrics, like request handler and replica fetcher threads during a burst
+ * of partition reassignments. Each thread owns its own metrics, but all of them map to the same few instrument names.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class RegistrationContentionBenchmark {
+
+    private static final int METRICS_PER_THREAD = 1_000;
+
+    @Param({"false", "true"})
+    public boolean batched;
+
+    private SdkMeterProvider meterProvider;
+    private OtelKafkaMetricsReporter kafkaReporter;
+    private OtelYammerMetricsReporter yammerReporter;
+
+    private final AtomicInteger threads = new AtomicInteger();
+
+    @Setup
+    public void setup() {
+        meterProvider = SdkMeterProvider.builder().registerMetricReader(InMemoryMetricReader.create()).build();
+        OtelMetricsReporterConfig config = new OtelMetricsReporterConfig(Map.of(OtelMetricsReporterConfig.BATCH_CALLBACKS_ENABLED_CONFIG, batched));
+        kafkaReporter = new OtelKafkaMetricsReporter(meterProvider.get("kafka"), new Context().setMetricsContext(new KafkaMetricsContext("kafka.server")), config);
+        yammerReporter = new OtelYammerMetricsReporter(meterProvider.get("yammer"), new Context().setMetricsContext(new KafkaMetricsContext("kafka.server")), config);
+    }
+
+    @TearDown
+    public void tearDown() {
+        kafkaReporter.close();
+        yammerReporter.close();
+        meterProvider.close();
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadMetrics {
+
+        KafkaMetric[] kafkaMetrics;
+        MetricName[] yammerNames;
+        Counter[] yammerCounters;
+        int next;
+
+        @Setup
+        public void setup(RegistrationContentionBenchmark benchmark) {
+            int thread = benchmark.threads.getAndIncrement();
+            MetricsRegistry yammerRegistry = new MetricsRegistry();
+            kafkaMetrics = new KafkaMetric[METRICS_PER_THREAD];
+            yammerNames = new MetricName[METRICS_PER_THREAD];
+            yammerCounters = new Counter[METRICS_PER_THREAD];
+            for (int i = 0; i < METRICS_PER_THREAD; i++) {
+                String partition = String.valueOf(thread * METRICS_PER_THREAD + i);
+                kafkaMetrics[i] = new KafkaMetric(new Object(),
+                        new org.apache.kafka.common.MetricName("bytes-in-total", "broker-topic-metrics", "", Map.of("topic", "topic", "partition", partition)),
+                        new CumulativeSum(), new MetricConfig(), Time.SYSTEM);
+                yammerNames[i] = new MetricName("kafka.log", "Log", "Size", null, "kafka.log:type=Log,name=Size,topic=topic,partition=" + partition);
+                yammerCounters[i] = yammerRegistry.newCounter(yammerNames[i]);
+            }
+        }
+
+        int next() {
+            int index = next;
+            next = (next + 1) % METRICS_PER_THREAD;
+            return index;
+        }
+    }
+
+    @Benchmark
+    public void kafkaMetricChangeAndRemoval(ThreadMetrics metrics) {
+        KafkaMetric metric = metrics.kafkaMetrics[metrics.next()];
+        kafkaReporter.metricChange(metric);
+        kafkaReporter.metricRemoval(metric);
+    }
+
+    @Benchmark
+    public void yammerMetricAddedAndRemoved(ThreadMetrics metrics) {
+        int index = metrics.next();
+        yammerReporter.onMetricAdded(metrics.yammerNames[index], metrics.yammerCounters[index]);
+        yammerReporter.onMetricRemoved(metrics.yammerNames[index]);
+    }
+}
@@ -0,0 +1,111 @@
+package net.uweeisele.kafka.metrics.reporter.otel.internal;
+
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.testing.exporter.InMemoryMetricReader;
+import net.uweeisele.kafka.metrics.reporter.otel.OtelMetricsReporterConfig;
+import net.uweeisele.kafka.metrics.reporter.otel.internal.kafka.OtelKafkaMetricsReporter;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.metrics.KafkaMetric;
+import org.apache.kafka.common.metrics.KafkaMetricsContext;
+import org.apache.kafka.common.metrics.MetricConfig;
+import org.apache.kafka.common.metrics.stats.Avg;
+import org.apache.kafka.common.metrics.stats.CumulativeSum;
+import org.apache.kafka.common.metrics.stats.Rate;
+import org.apache.kafka.common.utils.Time;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@code metricChange} and {@code metricRemoval} of the Kafka reporter with 1k, 10k and 100k registered metrics.
+ * <p>
+ * {@code addAndRemoveAll} registers and removes the whole metric set once, like a client which starts and stops.
+ * {@code replace} announces a single already registered metric again while all others stay registered, like Kafka
+ * does when a sensor is recreated, and shows how the cost of a single registration grows with the registry.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReporterRegistrationBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int metrics;
+
+    @Param({"false", "true"})
+    public boolean batched;
+
+    private SdkMeterProvider meterProvider;
+    private OtelKafkaMetricsReporter registeredReporter;
+    private OtelKafkaMetricsReporter emptyReporter;
+    private KafkaMetric[] kafkaMetrics;
+    private int next;
+
+    @Setup
+    public void setup() {
+        meterProvider = SdkMeterProvider.builder().registerMetricReader(InMemoryMetricReader.create()).build();
+        OtelMetricsReporterConfig config = new OtelMetricsReporterConfig(Map.of(OtelMetricsReporterConfig.BATCH_CALLBACKS_ENABLED_CONFIG, batched));
+        Context context = new Context().setMetricsContext(new KafkaMetricsContext("kafka.consumer"));
+        registeredReporter = new OtelKafkaMetricsReporter(meterProvider.get("registered"), context, config);
+        emptyReporter = new OtelKafkaMetricsReporter(meterProvider.get("empty"), context, config);
+        kafkaMetrics = newKafkaMetrics(metrics);
+        for (KafkaMetric metric : kafkaMetrics) {
+            registeredReporter.metricChange(metric);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        registeredReporter.close();
+        emptyReporter.close();
+        meterProvider.close();
+    }
+
+    @Benchmark
+    public void addAndRemoveAll() {
+        for (KafkaMetric metric : kafkaMetrics) {
+            emptyReporter.metricChange(metric);
+        }
+        for (KafkaMetric metric : kafkaMetrics) {
+            emptyReporter.metricRemoval(metric);
+        }
+    }
+
+    @Benchmark
+    public void replace() {
+        registeredReporter.metricChange(kafkaMetrics[next]);
+        next = (next + 1) % kafkaMetrics.length;
+    }
+
+    /**
+     * Consumer fetch metrics per partition: a lag gauge, an average, a rate and a cumulative sum.
+     */
+    static KafkaMetric[] newKafkaMetrics(int count) {
+        KafkaMetric[] kafkaMetrics = new KafkaMetric[count];
+        for (int i = 0; i < count; i++) {
+            Map<String, String> tags = Map.of("client-id", "consumer-1", "topic", "topic-" + (i / 400), "partition", String.valueOf(i));
+            switch (i % 4) {
+                case 0:
+                    kafkaMetrics[i] = newKafkaMetric("records-lag-avg", tags, new Avg());
+                    break;
+                case 1:
+                    kafkaMetrics[i] = newKafkaMetric("records-consumed-rate", tags, new Rate());
+                    break;
+                case 2:
+                    kafkaMetrics[i] = newKafkaMetric("records-consumed-total", tags, new CumulativeSum());
+                    break;
+                default:
+                    kafkaMetrics[i] = new KafkaMetric(new Object(), new MetricName("records-lag", "consumer-fetch-manager-metrics", "", tags),
+                            (org.apache.kafka.common.metrics.Gauge<Long>) (config, now) -> 42L, new MetricConfig(), Time.SYSTEM);
+            }
+        }
+        return kafkaMetrics;
+    }
+
+    private static KafkaMetric newKafkaMetric(String name, Map<String, String> tags, org.apache.kafka.common.metrics.MeasurableStat stat) {
+        return new KafkaMetric(new Object(), new MetricName(name, "consumer-fetch-manager-metrics", "", tags), stat, new MetricConfig(), Time.SYSTEM);
+    }
+}
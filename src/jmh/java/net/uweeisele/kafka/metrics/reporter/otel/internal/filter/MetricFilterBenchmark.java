@@ -0,0 +1,103 @@
+package net.uweeisele.kafka.metrics.reporter.otel.internal.filter;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Evaluates 100k distinct metric names against a few hundred include and exclude rules.
+ * <p>
+ * {@code naive} matches every name against the list of rules, each compiled into a regular expression.
+ * {@code compiled} evaluates the rules of a fresh {@link MetricFilter}, i.e. the trie and the remaining patterns,
+ * without hitting its memoized decisions. {@code memoized} repeats the evaluation with a warm filter, like a metric
+ * which is registered again for another partition or client.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetricFilterBenchmark {
+
+    private static final int METRICS = 100_000;
+    private static final int GROUPS = 200;
+
+    private List<String> includes;
+    private List<String> excludes;
+    private List<Pattern> naiveIncludes;
+    private List<Pattern> naiveExcludes;
+    private MetricFilter filter;
+    private String[] groups;
+    private String[] names;
+
+    @Setup
+    public void setup() {
+        includes = new ArrayList<>();
+        excludes = new ArrayList<>();
+        for (int i = 0; i < GROUPS; i += 2) {
+            includes.add("kafka.group" + i + ".Type*");
+            includes.add("kafka.group" + (i + 1) + ".Type" + i + ":Metric?" + i + "*");
+        }
+        for (int i = 0; i < GROUPS; i += 4) {
+            excludes.add("kafka.group" + i + ".Type" + i + ":*PerSec");
+        }
+        naiveIncludes = includes.stream().map(MetricFilterBenchmark::toNaivePattern).collect(toList());
+        naiveExcludes = excludes.stream().map(MetricFilterBenchmark::toNaivePattern).collect(toList());
+        filter = MetricFilter.create(includes, excludes, List.of(), List.of());
+
+        groups = new String[METRICS];
+        names = new String[METRICS];
+        for (int i = 0; i < METRICS; i++) {
+            groups[i] = "kafka.group" + (i % (GROUPS * 2)) + ".Type" + (i % 7);
+            names[i] = "Metric" + i + (i % 3 == 0 ? "PerSec" : "");
+        }
+        for (int i = 0; i < METRICS; i++) {
+            filter.test(groups[i], names[i], Map.of());
+        }
+    }
+
+    @Benchmark
+    public void naive(Blackhole blackhole) {
+        for (int i = 0; i < METRICS; i++) {
+            String metric = groups[i] + ":" + names[i];
+            blackhole.consume(matchesAny(naiveIncludes, metric) && !matchesAny(naiveExcludes, metric));
+        }
+    }
+
+    @Benchmark
+    public void compiled(Blackhole blackhole) {
+        MetricFilter coldFilter = new MetricFilter(includes, excludes, List.of(), List.of());
+        for (int i = 0; i < METRICS; i++) {
+            blackhole.consume(coldFilter.evaluateMetric(groups[i] + ":" + names[i]));
+        }
+    }
+
+    @Benchmark
+    public void memoized(Blackhole blackhole) {
+        for (int i = 0; i < METRICS; i++) {
+            blackhole.consume(filter.test(groups[i], names[i], Map.of()));
+        }
+    }
+
+    private static boolean matchesAny(List<Pattern> patterns, String metric) {
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(metric).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Pattern toNaivePattern(String rule) {
+        String glob = rule.contains(":") ? rule : rule + ":*";
+        return Pattern.compile(glob.replace(".", "\\.").replace("?", ".").replace("*", ".*"));
+    }
+}
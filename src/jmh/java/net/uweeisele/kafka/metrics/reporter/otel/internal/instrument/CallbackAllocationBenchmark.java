@@ -0,0 +1,108 @@
+package net.uweeisele.kafka.metrics.reporter.otel.internal.instrument;
+
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.ObservableDoubleMeasurement;
+import io.opentelemetry.api.metrics.ObservableLongMeasurement;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static io.opentelemetry.api.common.AttributeKey.stringKey;
+
+/**
+ * Measures the callback path of the instrument registry without the SDK: reading the values of all series of an
+ * instrument and recording them. Run with the {@code gc} profiler, {@code gc.alloc.rate.norm} is expected to be zero.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CallbackAllocationBenchmark {
+
+    private static final int SERIES = 1000;
+
+    @Param({"double", "long", "cached", "aggregated"})
+    public String type;
+
+    private Series[] series;
+    private ValueCache valueCache;
+    private BlackholeMeasurement measurement;
+
+    @Setup
+    public void setup(Blackhole blackhole) {
+        valueCache = new ValueCache(Duration.ofMinutes(1), null);
+        measurement = new BlackholeMeasurement(blackhole);
+        series = new Series[SERIES];
+        for (int i = 0; i < SERIES; i++) {
+            double value = i;
+            series[i] = new Series(null, Attributes.of(stringKey("partition"), String.valueOf(i)), "aggregated".equals(type) ? Aggregation.SUM : Aggregation.LAST, true, null);
+            switch (type) {
+                case "long":
+                    series[i].add(Series.ofLongs(() -> (long) value));
+                    break;
+                case "cached":
+                    series[i].add(Series.ofDoubles(valueCache.wrap(() -> value)));
+                    break;
+                case "aggregated":
+                    series[i].add(Series.ofDoubles(() -> value));
+                    series[i].add(Series.ofDoubles(() -> value));
+                    break;
+                default:
+                    series[i].add(Series.ofDoubles(() -> value));
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        valueCache.close();
+    }
+
+    @Benchmark
+    public void observe() {
+        if ("long".equals(type)) {
+            for (Series s : series) {
+                s.observe((ObservableLongMeasurement) measurement);
+            }
+        } else {
+            for (Series s : series) {
+                s.observe((ObservableDoubleMeasurement) measurement);
+            }
+        }
+    }
+
+    private static final class BlackholeMeasurement implements ObservableDoubleMeasurement, ObservableLongMeasurement {
+
+        private final Blackhole blackhole;
+
+        private BlackholeMeasurement(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void record(double value) {
+            blackhole.consume(value);
+        }
+
+        @Override
+        public void record(double value, Attributes attributes) {
+            blackhole.consume(value);
+            blackhole.consume(attributes);
+        }
+
+        @Override
+        public void record(long value) {
+            blackhole.consume(value);
+        }
+
+        @Override
+        public void record(long value, Attributes attributes) {
+            blackhole.consume(value);
+            blackhole.consume(attributes);
+        }
+    }
+}
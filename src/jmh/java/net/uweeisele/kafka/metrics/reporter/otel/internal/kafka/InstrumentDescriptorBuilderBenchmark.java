@@ -0,0 +1,141 @@
+package net.uweeisele.kafka.metrics.reporter.otel.internal.kafka;
+
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.common.AttributesBuilder;
+import net.uweeisele.kafka.metrics.reporter.otel.internal.CaseType;
+import net.uweeisele.kafka.metrics.reporter.otel.internal.Context;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.metrics.KafkaMetricsContext;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Measures how many Kafka metric registrations per second the name translation sustains.
+ * <p>
+ * {@code legacy} reproduces the translation before patterns were precompiled and memoized,
+ * {@code memoized} uses the current {@link InstrumentDescriptor.Builder}. The metric set mimics a partition
+ * reassignment: a handful of metric templates registered for many partitions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InstrumentDescriptorBuilderBenchmark {
+
+    private static final int PARTITIONS = 1_000;
+
+    private static final String[][] TEMPLATES = {
+            {"consumer-fetch-manager-metrics", "records-lag", "Value"},
+            {"consumer-fetch-manager-metrics", "records-lag-max", "Max"},
+            {"consumer-fetch-manager-metrics", "records-lead-min", "Min"},
+            {"consumer-fetch-manager-metrics", "records-lag-avg", "Avg"},
+            {"consumer-fetch-manager-metrics", "fetch-size-avg", "Avg"},
+            {"consumer-fetch-manager-metrics", "bytes-consumed-total", "Sum"},
+            {"consumer-fetch-manager-metrics", "bytes-consumed-rate", "Rate"},
+            {"consumer-fetch-manager-metrics", "records-consumed-total", "Sum"},
+            {"consumer-fetch-manager-metrics", "records-consumed-rate", "Rate"},
+            {"consumer-fetch-manager-metrics", "preferred-read-replica", ""}
+    };
+
+    private Context context;
+    private Function<String, String> nameManipulator;
+    private InstrumentDescriptor.Builder builder;
+    private List<MetricName> metricNames;
+
+    @Setup
+    public void setup() {
+        context = new Context().setMetricsContext(new KafkaMetricsContext("kafka.consumer", Map.of("client.id", "consumer-1")));
+        nameManipulator = CaseType.CAMEL_CASE.getManipulator().andThen(CaseType.FIRST_UPPER_CASE.getManipulator());
+        builder = InstrumentDescriptor.builder(context).withNameManipulator(nameManipulator);
+        metricNames = new ArrayList<>(PARTITIONS * TEMPLATES.length);
+        for (int partition = 0; partition < PARTITIONS; partition++) {
+            for (String[] template : TEMPLATES) {
+                metricNames.add(new MetricName(template[1], template[0], "", Map.of(
+                        "client-id", "consumer-1", "topic", "topic-" + partition % 10, "partition", String.valueOf(partition))));
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PARTITIONS * 10)
+    public void legacy(Blackhole blackhole) {
+        for (int i = 0; i < metricNames.size(); i++) {
+            MetricName name = metricNames.get(i);
+            blackhole.consume(LegacyTranslation.build(context, nameManipulator, name, statType(i)));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PARTITIONS * 10)
+    public void memoized(Blackhole blackhole) {
+        for (int i = 0; i < metricNames.size(); i++) {
+            blackhole.consume(builder.build(metricNames.get(i), statType(i)));
+        }
+    }
+
+    private static String statType(int index) {
+        return TEMPLATES[index % TEMPLATES.length][2];
+    }
+
+    /**
+     * The translation as it was implemented before patterns were compiled once and names were memoized.
+     */
+    private static final class LegacyTranslation {
+
+        static InstrumentDescriptor build(Context context, Function<String, String> nameManipulator, MetricName name, String statType) {
+            return new InstrumentDescriptor(
+                    withSuffix(buildName(context, nameManipulator, name), statType, nameManipulator),
+                    Attributes.builder().putAll(context.getAttributes()).putAll(buildAttributes(name)).build(),
+                    name.description());
+        }
+
+        private static String buildName(Context context, Function<String, String> nameManipulator, MetricName name) {
+            String[] namespaceParts = context.getNamespace().split("[.-_]");
+            List<String> partsToRemoveFromGroup = Arrays.stream(namespaceParts).map(s -> String.format("(-)?%s(-)?", s)).collect(toList());
+            partsToRemoveFromGroup.add("(-)?metrics(-)?");
+            String normalizedGroup = removeParts(name.group(), partsToRemoveFromGroup);
+            String normalizedName = removeParts(name.name(), List.of("-total", "-count")).replaceAll("(?i)Authentication", "Auth");
+            if (normalizedGroup.isBlank()) {
+                return context.getNamespace()
+                        + "." + nameManipulator.apply(normalizedName);
+            } else {
+                return context.getNamespace()
+                        + "." + nameManipulator.apply(normalizedGroup)
+                        + "." + nameManipulator.apply(normalizedName);
+            }
+        }
+
+        private static String withSuffix(String name, String suffix, Function<String, String> nameManipulator) {
+            if (suffix == null || suffix.isBlank()) {
+                return name;
+            }
+            return String.format("%s.%s", name.replaceAll("([-_.])?" + "(?i)" + suffix, ""), nameManipulator.apply(suffix));
+        }
+
+        private static Attributes buildAttributes(MetricName name) {
+            AttributesBuilder builder = Attributes.builder();
+            name.tags().entrySet().stream()
+                    .filter(e -> !e.getKey().matches("(?i)BrokerId"))
+                    .forEach(e -> builder.put(e.getKey(), e.getValue()));
+            return builder.build();
+        }
+
+        private static String removeParts(String value, List<String> parts) {
+            for (String part : parts) {
+                value = value.replaceAll("(?i)" + part, "");
+            }
+            return value;
+        }
+    }
+}
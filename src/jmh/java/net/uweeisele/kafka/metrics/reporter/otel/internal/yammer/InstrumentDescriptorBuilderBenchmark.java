@@ -0,0 +1,52 @@
+package net.uweeisele.kafka.metrics.reporter.otel.internal.yammer;
+
+import com.yammer.metrics.core.MetricName;
+import net.uweeisele.kafka.metrics.reporter.otel.internal.CaseType;
+import net.uweeisele.kafka.metrics.reporter.otel.internal.Context;
+import org.apache.kafka.common.metrics.KafkaMetricsContext;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how many Yammer metric registrations per second the name and attribute translation sustains.
+ * The metric set mimics the per-partition log metrics of a broker.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InstrumentDescriptorBuilderBenchmark {
+
+    private static final int PARTITIONS = 1_000;
+
+    private static final String[] NAMES = {"Size", "NumLogSegments", "LogStartOffset", "LogEndOffset"};
+
+    private InstrumentDescriptor.Builder builder;
+    private MetricName[] metricNames;
+
+    @Setup
+    public void setup() {
+        builder = InstrumentDescriptor.builder(new Context().setMetricsContext(new KafkaMetricsContext("kafka.server")))
+                .withNameManipulator(CaseType.CAMEL_CASE.getManipulator().andThen(CaseType.FIRST_UPPER_CASE.getManipulator()));
+        metricNames = new MetricName[PARTITIONS * NAMES.length];
+        int i = 0;
+        for (int partition = 0; partition < PARTITIONS; partition++) {
+            for (String name : NAMES) {
+                metricNames[i++] = new MetricName("kafka.log", "Log", name, null,
+                        "kafka.log:type=Log,name=" + name + ",topic=topic-" + (partition % 50) + ",partition=" + partition);
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PARTITIONS * 4)
+    public void build(Blackhole blackhole) {
+        for (MetricName metricName : metricNames) {
+            blackhole.consume(builder.build(metricName));
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package net.uweeisele.kafka.metrics.reporter.otel.internal.yammer;
+
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Metric;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.testing.exporter.InMemoryMetricReader;
+import net.uweeisele.kafka.metrics.reporter.otel.OtelMetricsReporterConfig;
+import net.uweeisele.kafka.metrics.reporter.otel.internal.Context;
+import org.apache.kafka.common.metrics.KafkaMetricsContext;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@code onMetricAdded} followed by {@code onMetricRemoved} for every Yammer metric type. Timers and
+ * histograms register far more instruments than counters and gauges.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class YammerRegistrationBenchmark {
+
+    private static final int PARTITIONS = 1_000;
+
+    @Param({"counter", "gauge", "meter", "histogram", "timer"})
+    public String type;
+
+    private SdkMeterProvider meterProvider;
+    private MetricsRegistry metricsRegistry;
+    private OtelYammerMetricsReporter reporter;
+    private MetricName[] names;
+    private Metric[] yammerMetrics;
+    private int next;
+
+    @Setup
+    public void setup() {
+        meterProvider = SdkMeterProvider.builder().registerMetricReader(InMemoryMetricReader.create()).build();
+        reporter = new OtelYammerMetricsReporter(meterProvider.get("yammer"), new Context().setMetricsContext(new KafkaMetricsContext("kafka.server")),
+                new OtelMetricsReporterConfig(Map.of()));
+        metricsRegistry = new MetricsRegistry();
+        names = new MetricName[PARTITIONS];
+        yammerMetrics = new Metric[PARTITIONS];
+        for (int i = 0; i < PARTITIONS; i++) {
+            names[i] = new MetricName("kafka.server", "BenchmarkMetrics", type, null,
+                    "kafka.server:type=BenchmarkMetrics,name=" + type + ",topic=topic,partition=" + i);
+            yammerMetrics[i] = newMetric(names[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        reporter.close();
+        metricsRegistry.shutdown();
+        meterProvider.close();
+    }
+
+    @Benchmark
+    public void addAndRemove() {
+        int index = next;
+        next = (next + 1) % PARTITIONS;
+        reporter.onMetricAdded(names[index], yammerMetrics[index]);
+        reporter.onMetricRemoved(names[index]);
+    }
+
+    private Metric newMetric(MetricName name) {
+        switch (type) {
+            case "counter":
+                return metricsRegistry.newCounter(name);
+            case "gauge":
+                return metricsRegistry.newGauge(name, new Gauge<Long>() {
+                    @Override
+                    public Long value() {
+                        return 42L;
+                    }
+                });
+            case "meter":
+                return metricsRegistry.newMeter(name, "requests", TimeUnit.SECONDS);
+            case "histogram":
+                return metricsRegistry.newHistogram(name, true);
+            case "timer":
+                return metricsRegistry.newTimer(name, TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
+            default:
+                throw new IllegalArgumentException("Unknown metric type: " + type);
+        }
+    }
+}
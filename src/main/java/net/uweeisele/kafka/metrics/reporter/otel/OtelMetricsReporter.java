@@ -4,11 +4,17 @@
 package net.uweeisele.kafka.metrics.reporter.otel;
 
 import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.instrumentation.api.internal.GuardedBy;
 import net.uweeisele.kafka.metrics.reporter.otel.internal.Context;
+import net.uweeisele.kafka.metrics.reporter.otel.internal.SelfMetrics;
+import net.uweeisele.kafka.metrics.reporter.otel.internal.instrument.InstrumentRegistry;
+import net.uweeisele.kafka.metrics.reporter.otel.internal.jfr.RuntimeTelemetry;
 import net.uweeisele.kafka.metrics.reporter.otel.internal.kafka.OtelKafkaMetricsReporter;
+import net.uweeisele.kafka.metrics.reporter.otel.internal.prometheus.PrometheusEndpoint;
 import net.uweeisele.kafka.metrics.reporter.otel.internal.yammer.OtelYammerMetricsReporter;
 import org.apache.kafka.common.ClusterResource;
 import org.apache.kafka.common.ClusterResourceListener;
+import org.apache.kafka.common.config.ConfigException;
 import org.apache.kafka.common.metrics.KafkaMetric;
 import org.apache.kafka.common.metrics.MetricsContext;
 import org.apache.kafka.common.metrics.MetricsReporter;
@@ -16,8 +22,12 @@ import org.apache.kafka.server.metrics.KafkaYammerMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import static java.util.stream.Collectors.toList;
@@ -30,11 +40,32 @@ public class OtelMetricsReporter implements MetricsReporter, ClusterResourceList
     private static final Logger logger =
             LoggerFactory.getLogger(OtelMetricsReporter.class.getName());
 
+    private final Function<Map<String, String>, CompletableFuture<OpenTelemetry>> asyncOpenTelemetryProvider;
+
+    private OtelMetricsReporterConfig config;
     private OpenTelemetry openTelemetry;
+    private PrometheusEndpoint.Registrations prometheusRegistrations;
+    private AutoCloseable runtimeTelemetry;
 
     private OtelYammerMetricsReporter otelYammerMetricsReporter;
     private OtelKafkaMetricsReporter otelKafkaMetricsReporter;
 
+    // While the SDK is initialized asynchronously, all changes are buffered and applied in order once it is ready.
+    private volatile boolean ready;
+    private final Object readyLock = new Object();
+    @GuardedBy("readyLock")
+    private List<Runnable> pendingChanges = new ArrayList<>();
+    @GuardedBy("readyLock")
+    private boolean closed;
+
+    public OtelMetricsReporter() {
+        this(SingletonOpenTelemetryProvider::getAsync);
+    }
+
+    OtelMetricsReporter(Function<Map<String, String>, CompletableFuture<OpenTelemetry>> asyncOpenTelemetryProvider) {
+        this.asyncOpenTelemetryProvider = asyncOpenTelemetryProvider;
+    }
+
     @Override
     public void onUpdate(ClusterResource clusterResource) {
 
@@ -42,63 +73,181 @@ public class OtelMetricsReporter implements MetricsReporter, ClusterResourceList
 
     @Override
     public void init(List<KafkaMetric> metrics) {
-        metrics.forEach(this::metricChange);
+        whenReady(() -> otelKafkaMetricsReporter.init(metrics));
     }
 
     @Override
     public void metricChange(KafkaMetric metric) {
-        otelKafkaMetricsReporter.metricChange(metric);
+        whenReady(() -> otelKafkaMetricsReporter.metricChange(metric));
     }
 
     @Override
     public void metricRemoval(KafkaMetric metric) {
-        otelKafkaMetricsReporter.metricRemoval(metric);
+        whenReady(() -> otelKafkaMetricsReporter.metricRemoval(metric));
     }
 
     @Override
     public void close() {
-        otelKafkaMetricsReporter.close();
-        otelYammerMetricsReporter.close();
+        synchronized (readyLock) {
+            closed = true;
+            pendingChanges = null;
+        }
+        if (prometheusRegistrations != null) {
+            prometheusRegistrations.close();
+        }
+        if (otelKafkaMetricsReporter != null) {
+            otelKafkaMetricsReporter.close();
+        }
+        if (otelYammerMetricsReporter != null) {
+            otelYammerMetricsReporter.close();
+        }
+        if (runtimeTelemetry != null) {
+            try {
+                runtimeTelemetry.close();
+            } catch (Exception e) {
+                logger.warn("Error occurred closing runtime telemetry", e);
+            }
+        }
     }
 
     @Override
     public void configure(Map<String, ?> configs) {
         logger.info("Configs: {}", configs);
+        config = new OtelMetricsReporterConfig(configs);
+        prometheusRegistrations = PrometheusEndpoint.acquire(config);
         if (configs.containsKey(CONFIG_KEY_OPENTELEMETRY_SUPPLIER)) {
             OpenTelemetrySupplier openTelemetrySupplier =
                     getProperty(configs, CONFIG_KEY_OPENTELEMETRY_SUPPLIER, OpenTelemetrySupplier.class);
             openTelemetry = openTelemetrySupplier.get();
+            ready();
+        } else if (config.sdkAsyncInitEnabled()) {
+            logger.info("Otel environment variables: {}", System.getenv().entrySet().stream().filter(e -> e.getKey().startsWith("OTEL")).collect(toList()));
+            asyncOpenTelemetryProvider.apply(sdkConfigs(configs)).whenComplete(this::sdkInitialized);
         } else {
             logger.info("Otel environment variables: {}", System.getenv().entrySet().stream().filter(e -> e.getKey().startsWith("OTEL")).collect(toList()));
-            openTelemetry = SingletonOpenTelemetryProvider.get(configsWithPrefix(configs, CONFIG_KEY_OTEL_PREFIX, false));
+            openTelemetry = SingletonOpenTelemetryProvider.get(sdkConfigs(configs));
+            ready();
         }
+    }
 
-        //BufferPools.registerObservers(openTelemetry);
-        //Classes.registerObservers(openTelemetry);
-        //Cpu.registerObservers(openTelemetry);
-        //MemoryPools.registerObservers(openTelemetry);
-        //Threads.registerObservers(openTelemetry);
-        //GarbageCollector.registerObservers(openTelemetry);
+    @Override
+    public Set<String> reconfigurableConfigs() {
+        return OtelMetricsReporterConfig.RECONFIGURABLE_CONFIGS;
+    }
+
+    @Override
+    public void validateReconfiguration(Map<String, ?> configs) throws ConfigException {
+        new OtelMetricsReporterConfig(configs);
+    }
+
+    @Override
+    public void reconfigure(Map<String, ?> configs) {
+        whenReady(() -> applyReconfiguration(configs));
+    }
+
+    private void applyReconfiguration(Map<String, ?> configs) {
+        logger.info("Reconfiguring: {}", configs.entrySet().stream().filter(e -> OtelMetricsReporterConfig.RECONFIGURABLE_CONFIGS.contains(e.getKey())).collect(toList()));
+        config = new OtelMetricsReporterConfig(configs);
+        if (otelKafkaMetricsReporter != null) {
+            otelKafkaMetricsReporter.reconfigure(configs);
+        }
+        if (otelYammerMetricsReporter != null) {
+            otelYammerMetricsReporter.reconfigure(configs);
+        }
     }
 
     @Override
     public void contextChange(MetricsContext metricsContext) {
+        whenReady(() -> applyContextChange(metricsContext));
+    }
+
+    private void applyContextChange(MetricsContext metricsContext) {
         logger.info("MetricsContext: {}", metricsContext.contextLabels());
         Context context = new Context().setMetricsContext(metricsContext);
 
+        // Existing reporters keep their metrics and only move them to the attributes of the new context.
         if (context.getNamespace().equals("kafka.server")) {
             if (otelYammerMetricsReporter != null) {
-                KafkaYammerMetrics.defaultRegistry().removeListener(otelYammerMetricsReporter);
-                otelYammerMetricsReporter.close();
+                otelYammerMetricsReporter.contextChange(context);
+            } else {
+                otelYammerMetricsReporter = new OtelYammerMetricsReporter(openTelemetry.meterBuilder("otel.metrics.reporter.yammer").build(), context, config,
+                        SelfMetrics.create(openTelemetry.meterBuilder(SelfMetrics.METER_NAME).build(), "yammer", context, config));
+                registerWithPrometheus(otelYammerMetricsReporter.getInstruments());
+                otelYammerMetricsReporter.listenTo(KafkaYammerMetrics.defaultRegistry());
             }
-            otelYammerMetricsReporter = new OtelYammerMetricsReporter(openTelemetry.meterBuilder("otel.metrics.reporter.yammer").build(), context);
-            KafkaYammerMetrics.defaultRegistry().addListener(otelYammerMetricsReporter);
         }
 
         if (otelKafkaMetricsReporter != null) {
-            otelKafkaMetricsReporter.close();
+            otelKafkaMetricsReporter.contextChange(context);
+        } else {
+            otelKafkaMetricsReporter = new OtelKafkaMetricsReporter(openTelemetry.meterBuilder("otel.metrics.reporter.kafka").build(), context, config,
+                    SelfMetrics.create(openTelemetry.meterBuilder(SelfMetrics.METER_NAME).build(), "kafka", context, config));
+            registerWithPrometheus(otelKafkaMetricsReporter.getInstruments());
+        }
+    }
+
+    /**
+     * Applies the change immediately if the SDK is ready, otherwise buffers it until the SDK is ready.
+     */
+    private void whenReady(Runnable change) {
+        if (!ready) {
+            synchronized (readyLock) {
+                if (!ready) {
+                    if (pendingChanges != null) {
+                        pendingChanges.add(change);
+                    }
+                    return;
+                }
+            }
+        }
+        change.run();
+    }
+
+    private void ready() {
+        synchronized (readyLock) {
+            startRuntimeTelemetry();
+            pendingChanges = null;
+            ready = true;
+        }
+    }
+
+    /**
+     * Applies all buffered changes on the thread which initialized the SDK. Changes which arrive meanwhile wait until
+     * the buffered ones have been applied, so that all changes are applied in order.
+     */
+    private void sdkInitialized(OpenTelemetry sdk, Throwable error) {
+        synchronized (readyLock) {
+            if (closed) {
+                return;
+            }
+            if (error != null) {
+                logger.error("Failed to initialize OpenTelemetry SDK, metrics are not exported", error);
+                openTelemetry = OpenTelemetry.noop();
+            } else {
+                openTelemetry = sdk;
+            }
+            startRuntimeTelemetry();
+            logger.info("OpenTelemetry SDK initialized, applying {} buffered changes", pendingChanges.size());
+            for (Runnable change : pendingChanges) {
+                try {
+                    change.run();
+                } catch (RuntimeException e) {
+                    logger.warn("Error occurred applying buffered change", e);
+                }
+            }
+            pendingChanges = null;
+            ready = true;
+        }
+    }
+
+    private void startRuntimeTelemetry() {
+        runtimeTelemetry = RuntimeTelemetry.acquire(openTelemetry.meterBuilder("otel.metrics.reporter.jfr").build(), config);
+    }
+
+    private void registerWithPrometheus(InstrumentRegistry instruments) {
+        if (prometheusRegistrations != null) {
+            prometheusRegistrations.register(instruments);
         }
-        otelKafkaMetricsReporter = new OtelKafkaMetricsReporter(openTelemetry.meterBuilder("otel.metrics.reporter.kafka").build(), context);
     }
 
     @SuppressWarnings("unchecked")
@@ -114,6 +263,12 @@ public class OtelMetricsReporter implements MetricsReporter, ClusterResourceList
         return (T) value;
     }
 
+    private static Map<String, String> sdkConfigs(Map<String, ?> configs) {
+        Map<String, String> sdkConfigs = configsWithPrefix(configs, CONFIG_KEY_OTEL_PREFIX, false);
+        sdkConfigs.keySet().removeIf(key -> key.startsWith(OtelMetricsReporterConfig.CONFIG_KEY_REPORTER_PREFIX));
+        return sdkConfigs;
+    }
+
     private static Map<String, String> configsWithPrefix(Map<String, ?> configs, String prefix, boolean stripPrefix) {
         return configs.entrySet().stream()
                 .filter(e -> e.getKey().startsWith(prefix))
@@ -0,0 +1,389 @@
+package net.uweeisele.kafka.metrics.reporter.otel;
+
+import org.apache.kafka.common.config.AbstractConfig;
+import org.apache.kafka.common.config.ConfigDef;
+import org.apache.kafka.common.config.ConfigDef.CaseInsensitiveValidString;
+import org.apache.kafka.common.config.ConfigDef.Importance;
+import org.apache.kafka.common.config.ConfigDef.Type;
+import org.apache.kafka.common.config.ConfigException;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import static org.apache.kafka.common.config.ConfigDef.Range.atLeast;
+import static org.apache.kafka.common.config.ConfigDef.Range.between;
+
+/**
+ * Configuration of the reporter itself.
+ * <p>
+ * All keys share the prefix {@value #CONFIG_KEY_REPORTER_PREFIX}. They are not passed on to the OpenTelemetry SDK
+ * autoconfiguration, which receives all other {@value OtelMetricsReporter#CONFIG_KEY_OTEL_PREFIX} prefixed configs.
+ */
+public class OtelMetricsReporterConfig extends AbstractConfig {
+
+    public static final String CONFIG_KEY_REPORTER_PREFIX = OtelMetricsReporter.CONFIG_KEY_OTEL_PREFIX + "metrics.reporter.";
+
+    public static final String BATCH_CALLBACKS_ENABLED_CONFIG = CONFIG_KEY_REPORTER_PREFIX + "batch.callbacks.enabled";
+    private static final String BATCH_CALLBACKS_ENABLED_DOC = "If enabled, all metrics which map to the same instrument name "
+            + "share a single observable callback, which iterates the metrics it owns. Otherwise, a separate observable is registered for every metric.";
+
+    public static final String YAMMER_METER_PROFILE_CONFIG = CONFIG_KEY_REPORTER_PREFIX + "yammer.meter.profile";
+    private static final String YAMMER_METER_PROFILE_DOC = "Which instruments are exported for Yammer meters and timers. 'full' exports "
+            + "the count, the mean rate and the 1, 5 and 15 minute rates, and for timers the summary and percentiles of their reservoir. "
+            + "'compact' only exports the count, and for timers the total duration as sum, from which the backend derives rates and "
+            + "averages.";
+
+    public static final String ASYNC_REGISTRATION_ENABLED_CONFIG = CONFIG_KEY_REPORTER_PREFIX + "async.registration.enabled";
+    private static final String ASYNC_REGISTRATION_ENABLED_DOC = "If enabled, added and removed metrics are only enqueued on the calling "
+            + "Kafka thread. A background worker registers and removes the instruments in batches and only applies the latest change per metric.";
+
+    public static final String ASYNC_REGISTRATION_QUEUE_CAPACITY_CONFIG = CONFIG_KEY_REPORTER_PREFIX + "async.registration.queue.capacity";
+    private static final String ASYNC_REGISTRATION_QUEUE_CAPACITY_DOC = "The maximum number of metrics with pending changes. Removals are always "
+            + "accepted, even if the queue is full.";
+
+    public static final String ASYNC_REGISTRATION_BATCH_SIZE_CONFIG = CONFIG_KEY_REPORTER_PREFIX + "async.registration.batch.size";
+    private static final String ASYNC_REGISTRATION_BATCH_SIZE_DOC = "The maximum number of changes the background worker takes from the queue at once.";
+
+    public static final String ASYNC_REGISTRATION_BLOCK_TIMEOUT_MS_CONFIG = CONFIG_KEY_REPORTER_PREFIX + "async.registration.block.timeout.ms";
+    private static final String ASYNC_REGISTRATION_BLOCK_TIMEOUT_MS_DOC = "How long a Kafka thread waits for free space in the full queue with overflow policy 'block'.";
+
+    public static final String ASYNC_REGISTRATION_OVERFLOW_POLICY_CONFIG = CONFIG_KEY_REPORTER_PREFIX + "async.registration.overflow.policy";
+    private static final String ASYNC_REGISTRATION_OVERFLOW_POLICY_DOC = "What happens to a new metric if the queue is full. 'block' waits up to "
+            + ASYNC_REGISTRATION_BLOCK_TIMEOUT_MS_CONFIG + " for free space and drops the metric afterwards. "
+            + "'drop' drops the metric immediately. Dropped metrics are not exported until Kafka announces them again.";
+
+    public static final String METRICS_INCLUDE_CONFIG = CONFIG_KEY_REPORTER_PREFIX + "metrics.include";
+    private static final String METRICS_INCLUDE_DOC = "If set, only metrics matching one of these rules get instruments. A rule has the form "
+            + "'<group>:<name>' or '<group>', both parts are glob patterns with '*' and '?' wildcards. For Kafka metrics, the group is "
+            + "the metric group, e.g. 'producer-metrics'. For Yammer metrics, it is the group and type, e.g. 'kafka.server.BrokerTopicMetrics'.";
+
+    public static final String METRICS_EXCLUDE_CONFIG = CONFIG_KEY_REPORTER_PREFIX + "metrics.exclude";
+    private static final String METRICS_EXCLUDE_DOC = "Metrics matching one of these rules never get instruments. Rules have the same form as for "
+            + METRICS_INCLUDE_CONFIG + ".";
+
+    public static final String TAGS_INCLUDE_CONFIG = CONFIG_KEY_REPORTER_PREFIX + "tags.include";
+    private static final String TAGS_INCLUDE_DOC = "Rules of the form '<tag>=<value>', where value is a glob pattern. A metric with one of these "
+            + "tags only gets instruments if its value matches one of the rules of the tag, e.g. 'topic=orders-*'.";
+
+    public static final String TAGS_EXCLUDE_CONFIG = CONFIG_KEY_REPORTER_PREFIX + "tags.exclude";
+    private static final String TAGS_EXCLUDE_DOC = "Rules of the form '<tag>=<value>', where value is a glob pattern. A metric with a tag value "
+            + "matching one of these rules never gets instruments, e.g. 'topic=__*'.";
+
+    public static final String CARDINALITY_LIMIT_CONFIG = CONFIG_KEY_REPORTER_PREFIX + "cardinality.limit";
+    private static final String CARDINALITY_LIMIT_DOC = "The maximum number of attribute sets per instrument name. Metrics with further attribute "
+            + "sets are recorded in a single series with the attribute otel.metric.overflow=true, which sums up counters and "
+            + "records the maximum of gauges. The counter otel.metrics.reporter.cardinality.overflows counts them per instrument. "
+            + "0 disables the limit.";
+
+    public static final String ROLLUP_RULES_CONFIG = CONFIG_KEY_REPORTER_PREFIX + "rollup.rules";
+    private static final String ROLLUP_RULES_DOC = "Rules of the form '<instrument>:<attribute>[|<attribute>...]:<sum|max|min>', where instrument is "
+            + "a glob pattern on the instrument name. The listed attributes are dropped from all matching instruments and the values of "
+            + "the metrics which only differ in these attributes are aggregated into a single series, e.g. 'kafka.log.Log.*:partition:sum'. "
+            + "The first matching rule applies.";
+
+    public static final String SELF_METRICS_ENABLED_CONFIG = CONFIG_KEY_REPORTER_PREFIX + "self.metrics.enabled";
+    private static final String SELF_METRICS_ENABLED_DOC = "If enabled, the reporter publishes metrics about itself under the meter "
+            + "otel.metrics.reporter.self: the time Kafka threads spend registering and removing metrics, the registration queue, "
+            + "the number of metrics, instruments and series, and the time spent in callbacks per collection.";
+
+    public static final String SELF_METRICS_TOP_INSTRUMENTS_CONFIG = CONFIG_KEY_REPORTER_PREFIX + "self.metrics.top.instruments";
+    private static final String SELF_METRICS_TOP_INSTRUMENTS_DOC = "The number of instruments with the most expensive callbacks per collection, "
+            + "which are published as otel.metrics.reporter.callback.top.duration and logged at debug level.";
+
+    public static final String COLLECTION_MIN_REFRESH_MS_CONFIG = CONFIG_KEY_REPORTER_PREFIX + "collection.min.refresh.ms";
+    private static final String COLLECTION_MIN_REFRESH_MS_DOC = "The minimum time between two reads of the same metric value. Collections within "
+            + "this interval, e.g. of several metric readers or exporters, serve the last reading. Should be shorter than the shortest "
+            + "export interval. 0 reads the values on every collection.";
+
+    public static final String COLLECTION_BUDGET_MS_CONFIG = CONFIG_KEY_REPORTER_PREFIX + "collection.budget.ms";
+    private static final String COLLECTION_BUDGET_MS_DOC = "The time the callbacks of a reporter may spend reading metric values per collection. "
+            + "Once it is used up, the remaining values serve their last reading and are refreshed in the background. 0 disables the budget.";
+
+    public static final String COLLECTION_SLOW_READ_MS_CONFIG = CONFIG_KEY_REPORTER_PREFIX + "collection.slow.read.ms";
+    private static final String COLLECTION_SLOW_READ_MS_DOC = "With a collection budget, values whose read takes longer than this "
+            + "always serve their last reading and are refreshed in the background, until a refresh is fast again.";
+
+    public static final String PROMETHEUS_ENABLED_CONFIG = CONFIG_KEY_REPORTER_PREFIX + "prometheus.enabled";
+    private static final String PROMETHEUS_ENABLED_DOC = "If enabled, an HTTP endpoint serves the metrics of the reporter in the OpenMetrics text format. "
+            + "It reads the metrics directly instead of through the SDK. The metrics of the reporter itself and the JFR runtime metrics are not served. "
+            + "All reporters in the JVM share one endpoint, the host and port of the first reporter apply.";
+
+    public static final String PROMETHEUS_HOST_CONFIG = CONFIG_KEY_REPORTER_PREFIX + "prometheus.host";
+    private static final String PROMETHEUS_HOST_DOC = "The host name or address the Prometheus endpoint binds to.";
+
+    public static final String PROMETHEUS_PORT_CONFIG = CONFIG_KEY_REPORTER_PREFIX + "prometheus.port";
+    private static final String PROMETHEUS_PORT_DOC = "The port of the Prometheus endpoint. Must differ from the port of the Prometheus exporter of the SDK, "
+            + "if both are used.";
+
+    public static final String PROMETHEUS_RENDER_INTERVAL_MS_CONFIG = CONFIG_KEY_REPORTER_PREFIX + "prometheus.render.interval.ms";
+    private static final String PROMETHEUS_RENDER_INTERVAL_MS_DOC = "Scrapes of the Prometheus endpoint within this interval share the same "
+            + "rendered response. 0 renders every scrape.";
+
+    public static final String SHARED_REGISTRY_ENABLED_CONFIG = CONFIG_KEY_REPORTER_PREFIX + "shared.registry.enabled";
+    private static final String SHARED_REGISTRY_ENABLED_DOC = "If enabled, all reporters in the JVM with the same OpenTelemetry instance "
+            + "and the same instrument settings share one instrument registry, so that there is one instrument per name across all clients. "
+            + "Together with batched callbacks, all clients are observed in one callback per instrument name.";
+
+    public static final String SDK_ASYNC_INIT_ENABLED_CONFIG = CONFIG_KEY_REPORTER_PREFIX + "sdk.async.init.enabled";
+    private static final String SDK_ASYNC_INIT_ENABLED_DOC = "If enabled, the OpenTelemetry SDK is initialized on a background thread instead of "
+            + "the thread which configures the reporter. Metrics and context changes which arrive in the meantime are buffered and applied "
+            + "once the SDK is ready. Has no effect if an OpenTelemetry supplier is configured.";
+
+    public static final String JFR_ENABLED_CONFIG = CONFIG_KEY_REPORTER_PREFIX + "jfr.enabled";
+    private static final String JFR_ENABLED_DOC = "If enabled, JVM runtime metrics are derived from a JFR event stream: GC pauses, safepoint "
+            + "times, allocation rate, lock contention and CPU utilization. The stream is shared by all reporters in the JVM. Requires Java 17.";
+
+    public static final String JFR_GC_THRESHOLD_MS_CONFIG = CONFIG_KEY_REPORTER_PREFIX + "jfr.gc.threshold.ms";
+    private static final String JFR_GC_THRESHOLD_MS_DOC = "Garbage collections which take less time are not recorded.";
+
+    public static final String JFR_SAFEPOINT_THRESHOLD_MS_CONFIG = CONFIG_KEY_REPORTER_PREFIX + "jfr.safepoint.threshold.ms";
+    private static final String JFR_SAFEPOINT_THRESHOLD_MS_DOC = "Safepoint synchronizations and operations which take less time are not recorded.";
+
+    public static final String JFR_LOCK_THRESHOLD_MS_CONFIG = CONFIG_KEY_REPORTER_PREFIX + "jfr.lock.threshold.ms";
+    private static final String JFR_LOCK_THRESHOLD_MS_DOC = "Contended monitor enters which take less time are not recorded.";
+
+    public static final String JFR_ALLOCATION_SAMPLES_PER_SECOND_CONFIG = CONFIG_KEY_REPORTER_PREFIX + "jfr.allocation.samples.per.second";
+    private static final String JFR_ALLOCATION_SAMPLES_PER_SECOND_DOC = "The maximum number of allocation samples per second the allocation "
+            + "rate is estimated from. 0 disables the allocation rate.";
+
+    public static final String JFR_CPU_PERIOD_MS_CONFIG = CONFIG_KEY_REPORTER_PREFIX + "jfr.cpu.period.ms";
+    private static final String JFR_CPU_PERIOD_MS_DOC = "The interval in which the CPU utilization of the JVM and of its threads is sampled.";
+
+    public static final String BULK_REGISTRATION_PARALLELISM_CONFIG = CONFIG_KEY_REPORTER_PREFIX + "bulk.registration.parallelism";
+    private static final String BULK_REGISTRATION_PARALLELISM_DOC = "The number of threads which add the metrics that already exist when a reporter "
+            + "starts. 0 uses the number of available processors, 1 adds them one by one on the thread which starts the reporter. Only applies "
+            + "without asynchronous registration.";
+
+    public static final String LAZY_REGISTRATION_ENABLED_CONFIG = CONFIG_KEY_REPORTER_PREFIX + "lazy.registration.enabled";
+    private static final String LAZY_REGISTRATION_ENABLED_DOC = "If enabled, gauges are registered without reading their value. Whether a gauge "
+            + "is numeric is decided on its first collection, and gauges with other values are removed again. Otherwise, gauges are read once "
+            + "on the thread which adds the metric.";
+
+    public static final String SUPPRESS_UNCHANGED_CYCLES_CONFIG = CONFIG_KEY_REPORTER_PREFIX + "suppress.unchanged.cycles";
+    private static final String SUPPRESS_UNCHANGED_CYCLES_DOC = "The number of collections a series is recorded with an unchanged value, "
+            + "before it is suppressed. Suppressed series are only recorded every heartbeat collections. 0 always records all series.";
+
+    public static final String SUPPRESS_HEARTBEAT_CYCLES_CONFIG = CONFIG_KEY_REPORTER_PREFIX + "suppress.heartbeat.cycles";
+    private static final String SUPPRESS_HEARTBEAT_CYCLES_DOC = "Every how many collections a suppressed series is recorded anyway, "
+            + "so that backends do not consider it stale. 0 never records suppressed series.";
+
+    public static final String IDLE_TTL_MS_CONFIG = CONFIG_KEY_REPORTER_PREFIX + "idle.ttl.ms";
+    private static final String IDLE_TTL_MS_DOC = "The time after which a series whose value has not changed expires. Expired series are not "
+            + "observed anymore until their value changes or the metric is registered again. 0 never expires series.";
+
+    private static final ConfigDef CONFIG = new ConfigDef()
+            .define(BATCH_CALLBACKS_ENABLED_CONFIG, Type.BOOLEAN, false, Importance.MEDIUM, BATCH_CALLBACKS_ENABLED_DOC)
+            .define(YAMMER_METER_PROFILE_CONFIG, Type.STRING, "full", CaseInsensitiveValidString.in("full", "compact"), Importance.MEDIUM, YAMMER_METER_PROFILE_DOC)
+            .define(ASYNC_REGISTRATION_ENABLED_CONFIG, Type.BOOLEAN, false, Importance.MEDIUM, ASYNC_REGISTRATION_ENABLED_DOC)
+            .define(ASYNC_REGISTRATION_QUEUE_CAPACITY_CONFIG, Type.INT, 10000, atLeast(1), Importance.LOW, ASYNC_REGISTRATION_QUEUE_CAPACITY_DOC)
+            .define(ASYNC_REGISTRATION_BATCH_SIZE_CONFIG, Type.INT, 500, atLeast(1), Importance.LOW, ASYNC_REGISTRATION_BATCH_SIZE_DOC)
+            .define(ASYNC_REGISTRATION_OVERFLOW_POLICY_CONFIG, Type.STRING, "block", CaseInsensitiveValidString.in("block", "drop"), Importance.LOW, ASYNC_REGISTRATION_OVERFLOW_POLICY_DOC)
+            .define(ASYNC_REGISTRATION_BLOCK_TIMEOUT_MS_CONFIG, Type.LONG, 100L, atLeast(0), Importance.LOW, ASYNC_REGISTRATION_BLOCK_TIMEOUT_MS_DOC)
+            .define(CARDINALITY_LIMIT_CONFIG, Type.INT, 0, atLeast(0), Importance.MEDIUM, CARDINALITY_LIMIT_DOC)
+            .define(ROLLUP_RULES_CONFIG, Type.LIST, "", OtelMetricsReporterConfig::validateRollupRules, Importance.MEDIUM, ROLLUP_RULES_DOC)
+            .define(SELF_METRICS_ENABLED_CONFIG, Type.BOOLEAN, false, Importance.LOW, SELF_METRICS_ENABLED_DOC)
+            .define(SELF_METRICS_TOP_INSTRUMENTS_CONFIG, Type.INT, 10, atLeast(0), Importance.LOW, SELF_METRICS_TOP_INSTRUMENTS_DOC)
+            .define(COLLECTION_MIN_REFRESH_MS_CONFIG, Type.LONG, 0L, atLeast(0), Importance.LOW, COLLECTION_MIN_REFRESH_MS_DOC)
+            .define(COLLECTION_BUDGET_MS_CONFIG, Type.LONG, 0L, atLeast(0), Importance.LOW, COLLECTION_BUDGET_MS_DOC)
+            .define(COLLECTION_SLOW_READ_MS_CONFIG, Type.LONG, 10L, atLeast(0), Importance.LOW, COLLECTION_SLOW_READ_MS_DOC)
+            .define(PROMETHEUS_ENABLED_CONFIG, Type.BOOLEAN, false, Importance.MEDIUM, PROMETHEUS_ENABLED_DOC)
+            .define(PROMETHEUS_HOST_CONFIG, Type.STRING, "0.0.0.0", Importance.LOW, PROMETHEUS_HOST_DOC)
+            .define(PROMETHEUS_PORT_CONFIG, Type.INT, 9465, between(0, 65535), Importance.MEDIUM, PROMETHEUS_PORT_DOC)
+            .define(PROMETHEUS_RENDER_INTERVAL_MS_CONFIG, Type.LONG, 1000L, atLeast(0), Importance.LOW, PROMETHEUS_RENDER_INTERVAL_MS_DOC)
+            .define(SHARED_REGISTRY_ENABLED_CONFIG, Type.BOOLEAN, false, Importance.MEDIUM, SHARED_REGISTRY_ENABLED_DOC)
+            .define(SDK_ASYNC_INIT_ENABLED_CONFIG, Type.BOOLEAN, false, Importance.MEDIUM, SDK_ASYNC_INIT_ENABLED_DOC)
+            .define(JFR_ENABLED_CONFIG, Type.BOOLEAN, false, Importance.MEDIUM, JFR_ENABLED_DOC)
+            .define(JFR_GC_THRESHOLD_MS_CONFIG, Type.LONG, 0L, atLeast(0), Importance.LOW, JFR_GC_THRESHOLD_MS_DOC)
+            .define(JFR_SAFEPOINT_THRESHOLD_MS_CONFIG, Type.LONG, 10L, atLeast(0), Importance.LOW, JFR_SAFEPOINT_THRESHOLD_MS_DOC)
+            .define(JFR_LOCK_THRESHOLD_MS_CONFIG, Type.LONG, 20L, atLeast(0), Importance.LOW, JFR_LOCK_THRESHOLD_MS_DOC)
+            .define(JFR_ALLOCATION_SAMPLES_PER_SECOND_CONFIG, Type.INT, 100, atLeast(0), Importance.LOW, JFR_ALLOCATION_SAMPLES_PER_SECOND_DOC)
+            .define(JFR_CPU_PERIOD_MS_CONFIG, Type.LONG, 10000L, atLeast(1), Importance.LOW, JFR_CPU_PERIOD_MS_DOC)
+            .define(BULK_REGISTRATION_PARALLELISM_CONFIG, Type.INT, 0, atLeast(0), Importance.LOW, BULK_REGISTRATION_PARALLELISM_DOC)
+            .define(LAZY_REGISTRATION_ENABLED_CONFIG, Type.BOOLEAN, false, Importance.LOW, LAZY_REGISTRATION_ENABLED_DOC)
+            .define(SUPPRESS_UNCHANGED_CYCLES_CONFIG, Type.INT, 0, atLeast(0), Importance.LOW, SUPPRESS_UNCHANGED_CYCLES_DOC)
+            .define(SUPPRESS_HEARTBEAT_CYCLES_CONFIG, Type.INT, 10, atLeast(0), Importance.LOW, SUPPRESS_HEARTBEAT_CYCLES_DOC)
+            .define(IDLE_TTL_MS_CONFIG, Type.LONG, 0L, atLeast(0), Importance.LOW, IDLE_TTL_MS_DOC)
+            .define(METRICS_INCLUDE_CONFIG, Type.LIST, "", Importance.MEDIUM, METRICS_INCLUDE_DOC)
+            .define(METRICS_EXCLUDE_CONFIG, Type.LIST, "", Importance.MEDIUM, METRICS_EXCLUDE_DOC)
+            .define(TAGS_INCLUDE_CONFIG, Type.LIST, "", OtelMetricsReporterConfig::validateTagRules, Importance.MEDIUM, TAGS_INCLUDE_DOC)
+            .define(TAGS_EXCLUDE_CONFIG, Type.LIST, "", OtelMetricsReporterConfig::validateTagRules, Importance.MEDIUM, TAGS_EXCLUDE_DOC);
+
+    /**
+     * The configs which can be changed at runtime, e.g. with {@code kafka-configs --alter}. The metric filter is applied
+     * to all known metrics again, which only adds and removes the instruments of metrics whose decision has changed.
+     */
+    public static final Set<String> RECONFIGURABLE_CONFIGS = Set.of(METRICS_INCLUDE_CONFIG, METRICS_EXCLUDE_CONFIG, TAGS_INCLUDE_CONFIG, TAGS_EXCLUDE_CONFIG);
+
+    public OtelMetricsReporterConfig(Map<?, ?> originals) {
+        super(CONFIG, originals, false);
+    }
+
+    public static ConfigDef configDef() {
+        return new ConfigDef(CONFIG);
+    }
+
+    public boolean batchCallbacksEnabled() {
+        return getBoolean(BATCH_CALLBACKS_ENABLED_CONFIG);
+    }
+
+    public boolean yammerMeterCompact() {
+        return "compact".equalsIgnoreCase(getString(YAMMER_METER_PROFILE_CONFIG));
+    }
+
+    public boolean asyncRegistrationEnabled() {
+        return getBoolean(ASYNC_REGISTRATION_ENABLED_CONFIG);
+    }
+
+    public int asyncRegistrationQueueCapacity() {
+        return getInt(ASYNC_REGISTRATION_QUEUE_CAPACITY_CONFIG);
+    }
+
+    public int asyncRegistrationBatchSize() {
+        return getInt(ASYNC_REGISTRATION_BATCH_SIZE_CONFIG);
+    }
+
+    public String asyncRegistrationOverflowPolicy() {
+        return getString(ASYNC_REGISTRATION_OVERFLOW_POLICY_CONFIG);
+    }
+
+    public Duration asyncRegistrationBlockTimeout() {
+        return Duration.ofMillis(getLong(ASYNC_REGISTRATION_BLOCK_TIMEOUT_MS_CONFIG));
+    }
+
+    public int cardinalityLimit() {
+        return getInt(CARDINALITY_LIMIT_CONFIG);
+    }
+
+    public List<String> rollupRules() {
+        return getList(ROLLUP_RULES_CONFIG);
+    }
+
+    public boolean selfMetricsEnabled() {
+        return getBoolean(SELF_METRICS_ENABLED_CONFIG);
+    }
+
+    public int selfMetricsTopInstruments() {
+        return getInt(SELF_METRICS_TOP_INSTRUMENTS_CONFIG);
+    }
+
+    public Duration collectionMinRefreshInterval() {
+        return Duration.ofMillis(getLong(COLLECTION_MIN_REFRESH_MS_CONFIG));
+    }
+
+    public Duration collectionBudget() {
+        return Duration.ofMillis(getLong(COLLECTION_BUDGET_MS_CONFIG));
+    }
+
+    public Duration collectionSlowRead() {
+        return Duration.ofMillis(getLong(COLLECTION_SLOW_READ_MS_CONFIG));
+    }
+
+    public boolean prometheusEnabled() {
+        return getBoolean(PROMETHEUS_ENABLED_CONFIG);
+    }
+
+    public String prometheusHost() {
+        return getString(PROMETHEUS_HOST_CONFIG);
+    }
+
+    public int prometheusPort() {
+        return getInt(PROMETHEUS_PORT_CONFIG);
+    }
+
+    public Duration prometheusRenderInterval() {
+        return Duration.ofMillis(getLong(PROMETHEUS_RENDER_INTERVAL_MS_CONFIG));
+    }
+
+    public boolean sharedRegistryEnabled() {
+        return getBoolean(SHARED_REGISTRY_ENABLED_CONFIG);
+    }
+
+    public boolean sdkAsyncInitEnabled() {
+        return getBoolean(SDK_ASYNC_INIT_ENABLED_CONFIG);
+    }
+
+    public boolean jfrEnabled() {
+        return getBoolean(JFR_ENABLED_CONFIG);
+    }
+
+    public Duration jfrGcThreshold() {
+        return Duration.ofMillis(getLong(JFR_GC_THRESHOLD_MS_CONFIG));
+    }
+
+    public Duration jfrSafepointThreshold() {
+        return Duration.ofMillis(getLong(JFR_SAFEPOINT_THRESHOLD_MS_CONFIG));
+    }
+
+    public Duration jfrLockThreshold() {
+        return Duration.ofMillis(getLong(JFR_LOCK_THRESHOLD_MS_CONFIG));
+    }
+
+    public int jfrAllocationSamplesPerSecond() {
+        return getInt(JFR_ALLOCATION_SAMPLES_PER_SECOND_CONFIG);
+    }
+
+    public Duration jfrCpuPeriod() {
+        return Duration.ofMillis(getLong(JFR_CPU_PERIOD_MS_CONFIG));
+    }
+
+    public int bulkRegistrationParallelism() {
+        int parallelism = getInt(BULK_REGISTRATION_PARALLELISM_CONFIG);
+        return parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+    }
+
+    public boolean lazyRegistrationEnabled() {
+        return getBoolean(LAZY_REGISTRATION_ENABLED_CONFIG);
+    }
+
+    public int suppressUnchangedCycles() {
+        return getInt(SUPPRESS_UNCHANGED_CYCLES_CONFIG);
+    }
+
+    public int suppressHeartbeatCycles() {
+        return getInt(SUPPRESS_HEARTBEAT_CYCLES_CONFIG);
+    }
+
+    public Duration idleTtl() {
+        return Duration.ofMillis(getLong(IDLE_TTL_MS_CONFIG));
+    }
+
+    public List<String> metricsInclude() {
+        return getList(METRICS_INCLUDE_CONFIG);
+    }
+
+    public List<String> metricsExclude() {
+        return getList(METRICS_EXCLUDE_CONFIG);
+    }
+
+    public List<String> tagsInclude() {
+        return getList(TAGS_INCLUDE_CONFIG);
+    }
+
+    public List<String> tagsExclude() {
+        return getList(TAGS_EXCLUDE_CONFIG);
+    }
+
+    private static void validateTagRules(String name, Object value) {
+        @SuppressWarnings("unchecked")
+        List<String> rules = (List<String>) value;
+        for (String rule : rules) {
+            if (rule.indexOf('=') <= 0) {
+                throw new ConfigException(name, value, String.format("Invalid tag rule '%s', expected <tag>=<value>", rule));
+            }
+        }
+    }
+
+    private static void validateRollupRules(String name, Object value) {
+        @SuppressWarnings("unchecked")
+        List<String> rules = (List<String>) value;
+        for (String rule : rules) {
+            String[] parts = rule.split(":");
+            if (parts.length != 3 || parts[0].isBlank() || parts[1].isBlank() || !List.of("sum", "max", "min").contains(parts[2].trim().toLowerCase(Locale.ROOT))) {
+                throw new ConfigException(name, value, String.format("Invalid roll-up rule '%s', expected <instrument>:<attribute>[|<attribute>...]:<sum|max|min>", rule));
+            }
+        }
+    }
+}
@@ -1,30 +1,108 @@
 package net.uweeisele.kafka.metrics.reporter.otel;
 
 import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.instrumentation.api.internal.GuardedBy;
 import io.opentelemetry.sdk.autoconfigure.AutoConfiguredOpenTelemetrySdk;
 
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
 
 public class SingletonOpenTelemetryProvider {
 
-    private static volatile OpenTelemetry openTelemetry;
-    private static volatile Map<String, String> openTelemetryConfigs;
+    private static final SingletonOpenTelemetryProvider INSTANCE = new SingletonOpenTelemetryProvider(configs ->
+            AutoConfiguredOpenTelemetrySdk.builder()
+                    .addPropertiesSupplier(() -> configs)
+                    .build()
+                    .getOpenTelemetrySdk());
 
+    private final Function<Map<String, String>, OpenTelemetry> sdkFactory;
+
+    // Only the bookkeeping is guarded, the SDK is built outside the monitor and published by completing the future.
+    @GuardedBy("this")
+    private CompletableFuture<OpenTelemetry> initialization;
+    @GuardedBy("this")
+    private Map<String, String> initializationConfigs;
+
+    SingletonOpenTelemetryProvider(Function<Map<String, String>, OpenTelemetry> sdkFactory) {
+        this.sdkFactory = sdkFactory;
+    }
+
+    /**
+     * Like {@link #get(Map)}, but initializes the SDK on a background thread, so that loading the exporters and
+     * resolving the resource does not delay the caller. The SDK is only initialized once, no matter how many callers
+     * ask for it concurrently. A failed initialization is attempted again by the next caller.
+     *
+     * @throws IllegalStateException like {@link #get(Map)}, if the SDK is or is being initialized with different configs.
+     */
+    public static CompletableFuture<OpenTelemetry> getAsync(Map<String, String> configs) {
+        return INSTANCE.initializeAsync(configs);
+    }
+
+    /**
+     * Initializes the SDK on the calling thread, or waits for the initialization which is already in flight.
+     *
+     * @throws IllegalStateException if the SDK is or is being initialized with different configs.
+     */
     public static OpenTelemetry get(Map<String, String> configs) {
-        if (openTelemetry == null) {
-            synchronized (SingletonOpenTelemetryProvider.class) {
-                if (openTelemetry == null) {
-                    AutoConfiguredOpenTelemetrySdk openTelemetrySdk = AutoConfiguredOpenTelemetrySdk.builder()
-                            .addPropertiesSupplier(() -> configs)
-                            .build();
-                    openTelemetry = openTelemetrySdk.getOpenTelemetrySdk();
-                    openTelemetryConfigs = configs;
+        return INSTANCE.initialize(configs);
+    }
+
+    CompletableFuture<OpenTelemetry> initializeAsync(Map<String, String> configs) {
+        return initialization(configs, task -> {
+            Thread thread = new Thread(task, "otel-metrics-reporter-sdk-init");
+            thread.setDaemon(true);
+            thread.start();
+        });
+    }
+
+    OpenTelemetry initialize(Map<String, String> configs) {
+        try {
+            return initialization(configs, Runnable::run).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private CompletableFuture<OpenTelemetry> initialization(Map<String, String> configs, Executor executor) {
+        CompletableFuture<OpenTelemetry> sdkInitialization;
+        synchronized (this) {
+            if (initialization != null) {
+                if (!configs.equals(initializationConfigs)) {
+                    throw new IllegalStateException(String.format(initialization.isDone()
+                            ? "OpenTelemetry has already been initialized with different configs: %s"
+                            : "OpenTelemetry is already being initialized with different configs: %s", initializationConfigs));
                 }
+                return initialization;
             }
+            sdkInitialization = new CompletableFuture<>();
+            initialization = sdkInitialization;
+            initializationConfigs = configs;
         }
-        if (!configs.equals(openTelemetryConfigs)) {
-            throw new IllegalStateException(String.format("OpenTelemetry has already been initialized with different configs: %s", openTelemetryConfigs));
+        executor.execute(() -> build(configs, sdkInitialization));
+        return sdkInitialization;
+    }
+
+    /**
+     * Forgets a failed initialization before its callers are completed, so that they can already attempt it again.
+     */
+    private void build(Map<String, String> configs, CompletableFuture<OpenTelemetry> sdkInitialization) {
+        OpenTelemetry openTelemetry;
+        try {
+            openTelemetry = sdkFactory.apply(configs);
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                initialization = null;
+                initializationConfigs = null;
+            }
+            sdkInitialization.completeExceptionally(e);
+            return;
         }
-        return openTelemetry;
+        sdkInitialization.complete(openTelemetry);
     }
 }
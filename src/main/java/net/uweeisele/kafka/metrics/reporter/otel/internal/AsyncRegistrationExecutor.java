@@ -0,0 +1,193 @@
+package net.uweeisele.kafka.metrics.reporter.otel.internal;
+
+import io.opentelemetry.instrumentation.api.internal.GuardedBy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Takes the registration of instruments off the threads which create or remove Kafka metrics.
+ * <p>
+ * Callers only enqueue the change and return. A single background worker drains the queue in batches. Only the latest
+ * change per metric is kept, so an add/remove/add sequence for the same metric results in a single registration.
+ * <p>
+ * The queue is bounded by the number of distinct pending metrics. If it is full, the {@link OverflowPolicy} decides
+ * whether the caller blocks or the change is dropped. Removals are always accepted and may exceed the capacity, because
+ * the instruments would otherwise keep referencing the removed metric.
+ */
+public class AsyncRegistrationExecutor implements RegistrationExecutor {
+
+    private static final Logger log = LoggerFactory.getLogger(AsyncRegistrationExecutor.class);
+
+    public enum OverflowPolicy {
+        /**
+         * Waits for free space up to the block timeout and drops the change afterwards.
+         */
+        BLOCK,
+        /**
+         * Drops the change immediately.
+         */
+        DROP;
+
+        public static OverflowPolicy parse(String value) {
+            return valueOf(value.trim().toUpperCase());
+        }
+    }
+
+    private final int capacity;
+    private final int batchSize;
+    private final OverflowPolicy overflowPolicy;
+    private final long blockTimeoutNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    @GuardedBy("lock")
+    private final Queue<Object> queue = new ArrayDeque<>();
+    @GuardedBy("lock")
+    private final Map<Object, Runnable> pending = new HashMap<>();
+    @GuardedBy("lock")
+    private long dropped = 0;
+    @GuardedBy("lock")
+    private boolean closed = false;
+
+    private final Thread worker;
+
+    public AsyncRegistrationExecutor(String name, int capacity, int batchSize, OverflowPolicy overflowPolicy, Duration blockTimeout) {
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.overflowPolicy = overflowPolicy;
+        this.blockTimeoutNanos = blockTimeout.toNanos();
+        this.worker = new Thread(this::drain, "otel-metrics-reporter-registration-" + name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    @Override
+    public void execute(Object key, Runnable change, boolean removal) {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            if (pending.containsKey(key)) {
+                pending.put(key, change);
+                return;
+            }
+            if (!removal && queue.size() >= capacity && !awaitCapacity()) {
+                dropped++;
+                log.debug("Dropping instrument registration of metric {}, because the registration queue is full.", key);
+                return;
+            }
+            // Another change of the same metric might have been enqueued while waiting for capacity.
+            if (pending.put(key, change) == null) {
+                queue.add(key);
+                notEmpty.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int pendingChanges() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long droppedChanges() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops the worker after the batch it is currently applying. Pending changes are discarded.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            queue.clear();
+            pending.clear();
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            worker.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @GuardedBy("lock")
+    private boolean awaitCapacity() {
+        if (overflowPolicy != OverflowPolicy.BLOCK) {
+            return false;
+        }
+        long remainingNanos = blockTimeoutNanos;
+        try {
+            while (queue.size() >= capacity && !closed) {
+                if (remainingNanos <= 0) {
+                    return false;
+                }
+                remainingNanos = notFull.awaitNanos(remainingNanos);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return !closed;
+    }
+
+    private void drain() {
+        List<Runnable> batch = new ArrayList<>(batchSize);
+        while (true) {
+            lock.lock();
+            try {
+                while (queue.isEmpty() && !closed) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                if (closed) {
+                    return;
+                }
+                while (batch.size() < batchSize && !queue.isEmpty()) {
+                    batch.add(pending.remove(queue.poll()));
+                }
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            for (Runnable change : batch) {
+                try {
+                    change.run();
+                } catch (RuntimeException e) {
+                    log.warn("Error occurred applying instrument registration", e);
+                }
+            }
+            batch.clear();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package net.uweeisele.kafka.metrics.reporter.otel.internal;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.common.AttributesBuilder;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Canonical instances of attribute keys, attribute values and whole attribute sets, shared by all reporters of the JVM.
+ * <p>
+ * Kafka registers dozens of metrics with the same tags for every topic, partition or client. Without interning, every
+ * metric retains its own copy of the tag values and of the attribute set, which includes the context attributes.
+ * Keys are few and kept forever. Values and attribute sets are only referenced weakly, so they are dropped once no
+ * registered metric uses them anymore. The pools are striped by hash to keep parallel registrations apart.
+ */
+public final class AttributeInterner {
+
+    private static final int STRIPES = 16;
+
+    private static final Map<String, AttributeKey<String>> KEYS = new ConcurrentHashMap<>();
+    private static final WeakPool<String> VALUES = new WeakPool<>();
+    private static final WeakPool<Attributes> ATTRIBUTES = new WeakPool<>();
+
+    private AttributeInterner() {
+    }
+
+    public static AttributeKey<String> key(String name) {
+        return KEYS.computeIfAbsent(name, AttributeKey::stringKey);
+    }
+
+    public static String value(String value) {
+        return value != null ? VALUES.intern(value) : null;
+    }
+
+    public static Attributes attributes(Attributes attributes) {
+        return ATTRIBUTES.intern(attributes);
+    }
+
+    /**
+     * Puts the string attribute with interned key and value.
+     */
+    public static AttributesBuilder put(AttributesBuilder builder, String key, String value) {
+        return builder.put(key(key), value(value));
+    }
+
+    private static final class WeakPool<T> {
+
+        private final List<Map<T, WeakReference<T>>> stripes = new ArrayList<>(STRIPES);
+
+        private WeakPool() {
+            for (int i = 0; i < STRIPES; i++) {
+                stripes.add(new WeakHashMap<>());
+            }
+        }
+
+        T intern(T value) {
+            Map<T, WeakReference<T>> stripe = stripes.get((value.hashCode() & 0x7fffffff) % STRIPES);
+            synchronized (stripe) {
+                WeakReference<T> reference = stripe.get(value);
+                T canonical = reference != null ? reference.get() : null;
+                if (canonical == null) {
+                    stripe.put(value, new WeakReference<>(value));
+                    canonical = value;
+                }
+                return canonical;
+            }
+        }
+    }
+}
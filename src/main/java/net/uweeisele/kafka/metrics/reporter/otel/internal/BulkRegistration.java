@@ -0,0 +1,61 @@
+package net.uweeisele.kafka.metrics.reporter.otel.internal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Adds many metrics at once, e.g. all metrics which already exist when a reporter starts.
+ * <p>
+ * Translating metric names into descriptors and registering their series is thread-safe for distinct metrics, so the
+ * metrics are split up and added in parallel on a fork-join pool, which only exists for the duration of the bulk.
+ * Small bulks are added on the calling thread, because starting the pool would take longer than adding them.
+ */
+public final class BulkRegistration {
+
+    private static final Logger log = LoggerFactory.getLogger(BulkRegistration.class);
+
+    static final int MIN_PARALLEL_SIZE = 1000;
+
+    private BulkRegistration() {
+    }
+
+    /**
+     * Applies the registration to all metrics and waits until it is done. Failing registrations are logged and do not
+     * affect the other metrics.
+     */
+    public static <T> void forEach(String name, Collection<T> metrics, int parallelism, Consumer<T> registration) {
+        Consumer<T> isolated = metric -> {
+            try {
+                registration.accept(metric);
+            } catch (RuntimeException e) {
+                log.warn("Error occurred adding {} metric {}", name, metric, e);
+            }
+        };
+        if (parallelism <= 1 || metrics.size() < MIN_PARALLEL_SIZE) {
+            metrics.forEach(isolated);
+            return;
+        }
+        long start = System.nanoTime();
+        AtomicInteger threads = new AtomicInteger();
+        ForkJoinPool pool = new ForkJoinPool(parallelism, p -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            thread.setName("otel-metrics-reporter-bulk-" + name + "-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+        try {
+            pool.submit(() -> metrics.parallelStream().forEach(isolated)).join();
+        } finally {
+            pool.shutdown();
+        }
+        log.info("Added {} {} metrics with {} threads in {} ms", metrics.size(), name, parallelism,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+}
@@ -1,21 +1,18 @@
 package net.uweeisele.kafka.metrics.reporter.otel.internal;
 
 import java.util.function.Function;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public enum CaseType {
 
     LOWER_CASE(String::toLowerCase),
-    LOWER_CASE_SINGLE_WORD(s -> s.toLowerCase().replaceAll("[-_]", "")),
-    SNAKE_CASE(s -> s
-            .replaceAll("([a-z])([A-Z])","$1_$2")
-            .replaceAll("(.)[-.](.)", "$1_$2")
+    LOWER_CASE_SINGLE_WORD(s -> Patterns.SEPARATOR.matcher(s.toLowerCase()).replaceAll("")),
+    SNAKE_CASE(s -> Patterns.SNAKE_CASE_SEPARATOR.matcher(
+                Patterns.CAMEL_CASE_BOUNDARY.matcher(s).replaceAll("$1_$2"))
+            .replaceAll("$1_$2")
             .toLowerCase()),
-    CAMEL_CASE(s -> {
-        Matcher matcher = Pattern.compile("(.)[-_.](.)").matcher(s);
-        return matcher.replaceAll(mr -> String.format("%s%s", matcher.group(1).toLowerCase(), matcher.group(2).toUpperCase()));
-    }),
+    CAMEL_CASE(s -> Patterns.CAMEL_CASE_SEPARATOR.matcher(s)
+            .replaceAll(mr -> String.format("%s%s", mr.group(1).toLowerCase(), mr.group(2).toUpperCase()))),
     FIRST_UPPER_CASE(s -> s.isBlank() ? s : s.substring(0, 1).toUpperCase() + s.substring(1)),
     FIRST_LOWER_CASE(s -> s.isBlank() ? s : s.substring(0, 1).toLowerCase() + s.substring(1));
 
@@ -28,4 +25,12 @@ public enum CaseType {
     public Function<String, String> getManipulator() {
         return manipulator;
     }
-}
\ No newline at end of file
+
+    // Enum constants cannot reference their own static fields, so the compiled patterns live in a holder.
+    private static final class Patterns {
+        private static final Pattern SEPARATOR = Pattern.compile("[-_]");
+        private static final Pattern CAMEL_CASE_BOUNDARY = Pattern.compile("([a-z])([A-Z])");
+        private static final Pattern SNAKE_CASE_SEPARATOR = Pattern.compile("(.)[-.](.)");
+        private static final Pattern CAMEL_CASE_SEPARATOR = Pattern.compile("(.)[-_.](.)");
+    }
+}
@@ -5,6 +5,7 @@ import io.opentelemetry.api.common.AttributesBuilder;
 import org.apache.kafka.common.metrics.MetricsContext;
 
 import java.util.Map;
+import java.util.Objects;
 
 public class Context {
 
@@ -26,8 +27,26 @@ public class Context {
         metricsContext.contextLabels().entrySet().stream()
                 .filter(e -> !e.getKey().equals(MetricsContext.NAMESPACE))
                 .map(e -> Map.entry(CaseType.CAMEL_CASE.getManipulator().apply(e.getKey().replace("kafka.", "")), e.getValue()))
-                .forEach(e -> attributesBuilder.put(e.getKey(), e.getValue()));
-        attributes = attributesBuilder.build();
+                .forEach(e -> AttributeInterner.put(attributesBuilder, e.getKey(), e.getValue()));
+        attributes = AttributeInterner.attributes(attributesBuilder.build());
         return this;
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Context)) return false;
+        Context that = (Context) o;
+        return Objects.equals(namespace, that.namespace) && attributes.equals(that.attributes);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(namespace, attributes);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s%s", namespace, attributes);
+    }
 }
@@ -0,0 +1,52 @@
+package net.uweeisele.kafka.metrics.reporter.otel.internal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+/**
+ * The value of a gauge whose type is only known once it is read.
+ * <p>
+ * With lazy registration, gauges are registered as double gauges without reading them. The first collection reads
+ * the value and decides: numeric values are recorded from then on, like for an eagerly registered gauge. If the first
+ * value is {@code null} or not numeric, the gauge is reported as unsupported exactly once, so that the reporter removes
+ * it again, and {@link Double#NaN} is returned in the meantime.
+ */
+public class LazyGaugeValue implements DoubleSupplier {
+
+    private static final Logger log = LoggerFactory.getLogger(LazyGaugeValue.class);
+
+    private final Object name;
+    private final Supplier<?> value;
+    private final Runnable onUnsupported;
+
+    private volatile boolean resolved = false;
+    private final AtomicBoolean unsupported = new AtomicBoolean(false);
+
+    /**
+     * @param name the name of the metric, for logging.
+     * @param onUnsupported called once if the first value is not numeric.
+     */
+    public LazyGaugeValue(Object name, Supplier<?> value, Runnable onUnsupported) {
+        this.name = name;
+        this.value = value;
+        this.onUnsupported = onUnsupported;
+    }
+
+    @Override
+    public double getAsDouble() {
+        Object current = value.get();
+        if (current instanceof Number) {
+            resolved = true;
+            return ((Number) current).doubleValue();
+        }
+        if (!resolved && unsupported.compareAndSet(false, true)) {
+            log.trace("Removing gauge metric {}, because its value {} is not numeric.", name, current);
+            onUnsupported.run();
+        }
+        return Double.NaN;
+    }
+}
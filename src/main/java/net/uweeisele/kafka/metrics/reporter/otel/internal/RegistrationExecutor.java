@@ -0,0 +1,42 @@
+package net.uweeisele.kafka.metrics.reporter.otel.internal;
+
+import net.uweeisele.kafka.metrics.reporter.otel.OtelMetricsReporterConfig;
+
+/**
+ * Executes the registration and removal of instruments for a metric.
+ * <p>
+ * Changes are identified by the name of the metric they belong to. Implementations must apply the changes of the same
+ * metric in the order in which they have been submitted, but may skip changes which have been superseded by a later one.
+ */
+public interface RegistrationExecutor extends AutoCloseable {
+
+    /**
+     * Applies every change immediately on the calling thread.
+     */
+    RegistrationExecutor DIRECT = (key, change, removal) -> change.run();
+
+    static RegistrationExecutor create(String name, OtelMetricsReporterConfig config) {
+        if (!config.asyncRegistrationEnabled()) {
+            return DIRECT;
+        }
+        return new AsyncRegistrationExecutor(name,
+                config.asyncRegistrationQueueCapacity(),
+                config.asyncRegistrationBatchSize(),
+                AsyncRegistrationExecutor.OverflowPolicy.parse(config.asyncRegistrationOverflowPolicy()),
+                config.asyncRegistrationBlockTimeout());
+    }
+
+    void execute(Object key, Runnable change, boolean removal);
+
+    default int pendingChanges() {
+        return 0;
+    }
+
+    default long droppedChanges() {
+        return 0;
+    }
+
+    @Override
+    default void close() {
+    }
+}
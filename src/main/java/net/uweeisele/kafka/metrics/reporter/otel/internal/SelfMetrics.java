@@ -0,0 +1,229 @@
+package net.uweeisele.kafka.metrics.reporter.otel.internal;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.BatchCallback;
+import io.opentelemetry.api.metrics.DoubleHistogram;
+import io.opentelemetry.api.metrics.Meter;
+import io.opentelemetry.api.metrics.ObservableDoubleMeasurement;
+import io.opentelemetry.api.metrics.ObservableLongMeasurement;
+import io.opentelemetry.instrumentation.api.internal.GuardedBy;
+import net.uweeisele.kafka.metrics.reporter.otel.OtelMetricsReporterConfig;
+import net.uweeisele.kafka.metrics.reporter.otel.internal.instrument.InstrumentRegistry;
+import net.uweeisele.kafka.metrics.reporter.otel.internal.instrument.InstrumentType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntSupplier;
+
+/**
+ * Metrics of a single metrics reporter about itself, published under the meter {@value #METER_NAME}.
+ * <p>
+ * The calling Kafka threads record how long adding and removing a metric takes. Everything else is read during
+ * collection: the registration queue, the number of registered metrics, instruments and series, and the time the
+ * instrument callbacks took since the previous collection, in total and for the most expensive instrument names.
+ * The most expensive instrument names are also logged at debug level.
+ * <p>
+ * All metrics carry the attributes of the context of the reporter, e.g. its client id, and its namespace, so that the
+ * reporters of several clients in the same JVM publish separate series. With a shared instrument registry, each of
+ * them reports the instruments and series of the whole registry.
+ */
+public class SelfMetrics implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(SelfMetrics.class);
+
+    public static final String METER_NAME = "otel.metrics.reporter.self";
+
+    public static final SelfMetrics DISABLED = new SelfMetrics(null, "", new Context(), 0);
+
+    private static final String PREFIX = "otel.metrics.reporter.";
+    private static final AttributeKey<String> REPORTER_KEY = AttributeKey.stringKey("reporter");
+    private static final AttributeKey<String> NAMESPACE_KEY = AttributeKey.stringKey("namespace");
+    private static final AttributeKey<String> OPERATION_KEY = AttributeKey.stringKey("operation");
+    private static final AttributeKey<String> TYPE_KEY = AttributeKey.stringKey("type");
+    private static final AttributeKey<String> INSTRUMENT_KEY = AttributeKey.stringKey("instrument");
+
+    private final Meter meter;
+    private final String reporter;
+    private final int topInstruments;
+    private volatile Labels labels;
+    private final DoubleHistogram registrationDuration;
+
+    private final Object observableLock = new Object();
+    @GuardedBy("observableLock")
+    private final List<AutoCloseable> observables = new ArrayList<>();
+    @GuardedBy("observableLock")
+    private boolean closed = false;
+
+    @GuardedBy("this")
+    private Map<String, Long> previousCallbackNanos = Map.of();
+
+    private SelfMetrics(Meter meter, String reporter, Context context, int topInstruments) {
+        this.meter = meter;
+        this.reporter = reporter;
+        this.topInstruments = topInstruments;
+        this.labels = new Labels(reporter, context);
+        this.registrationDuration = meter != null
+                ? meter.histogramBuilder(PREFIX + "registration.duration")
+                        .setDescription("The time a Kafka thread spends adding or removing a metric, including the registration of its instruments unless it is asynchronous.")
+                        .setUnit("us")
+                        .build()
+                : null;
+    }
+
+    public static SelfMetrics create(Meter meter, String reporter, Context context, OtelMetricsReporterConfig config) {
+        if (!config.selfMetricsEnabled()) {
+            return DISABLED;
+        }
+        return new SelfMetrics(meter, reporter, context, config.selfMetricsTopInstruments());
+    }
+
+    /**
+     * Publishes all further values under the attributes of the new context.
+     */
+    public void contextChange(Context context) {
+        if (meter != null) {
+            labels = new Labels(reporter, context);
+        }
+    }
+
+    /**
+     * @return the start time to pass to {@link #recordAdd(long)} or {@link #recordRemove(long)}.
+     */
+    public long start() {
+        return meter != null ? System.nanoTime() : 0L;
+    }
+
+    public void recordAdd(long start) {
+        record(start, labels.addAttributes);
+    }
+
+    public void recordRemove(long start) {
+        record(start, labels.removeAttributes);
+    }
+
+    private void record(long start, Attributes operationAttributes) {
+        if (registrationDuration != null) {
+            registrationDuration.record((System.nanoTime() - start) / 1_000.0, operationAttributes);
+        }
+    }
+
+    /**
+     * Observes the state of a reporter, until this instance is closed.
+     *
+     * @param metrics the number of metrics registered by the reporter.
+     */
+    public void observe(InstrumentRegistry instruments, RegistrationExecutor registrations, IntSupplier metrics) {
+        if (meter == null) {
+            return;
+        }
+        ObservableLongMeasurement queueSize = meter.gaugeBuilder(PREFIX + "registration.queue.size").ofLongs()
+                .setDescription("The number of metrics with pending asynchronous registrations or removals.")
+                .buildObserver();
+        ObservableLongMeasurement dropped = meter.counterBuilder(PREFIX + "registration.dropped")
+                .setDescription("The number of metrics which have been dropped, because the registration queue was full.")
+                .buildObserver();
+        ObservableLongMeasurement registeredMetrics = meter.gaugeBuilder(PREFIX + "metrics").ofLongs()
+                .setDescription("The number of metrics with registered instruments.")
+                .buildObserver();
+        ObservableLongMeasurement instrumentCount = meter.gaugeBuilder(PREFIX + "instruments").ofLongs()
+                .setDescription("The number of registered instruments per type.")
+                .buildObserver();
+        ObservableLongMeasurement seriesCount = meter.gaugeBuilder(PREFIX + "series").ofLongs()
+                .setDescription("The number of series of all registered instruments.")
+                .buildObserver();
+        ObservableDoubleMeasurement callbackDuration = meter.gaugeBuilder(PREFIX + "callback.duration")
+                .setDescription("The time spent in the callbacks of all instruments since the previous collection.")
+                .setUnit("us")
+                .buildObserver();
+        ObservableDoubleMeasurement topCallbackDuration = meter.gaugeBuilder(PREFIX + "callback.top.duration")
+                .setDescription("The time spent in the callbacks of the most expensive instruments since the previous collection.")
+                .setUnit("us")
+                .buildObserver();
+        BatchCallback callback = meter.batchCallback(() -> {
+                    Attributes attributes = labels.attributes;
+                    queueSize.record(registrations.pendingChanges(), attributes);
+                    dropped.record(registrations.droppedChanges(), attributes);
+                    registeredMetrics.record(metrics.getAsInt(), attributes);
+                    for (Map.Entry<InstrumentType, Integer> count : instruments.instrumentCounts().entrySet()) {
+                        instrumentCount.record(count.getValue(), attributes.toBuilder().put(TYPE_KEY, count.getKey().name().toLowerCase()).build());
+                    }
+                    seriesCount.record(instruments.seriesCount(), attributes);
+                    observeCallbackNanos(instruments.callbackNanos(), callbackDuration, topCallbackDuration, attributes);
+                },
+                queueSize, dropped, registeredMetrics, instrumentCount, seriesCount, callbackDuration, topCallbackDuration);
+        synchronized (observableLock) {
+            if (closed) {
+                closeObservable(callback);
+            } else {
+                observables.add(callback);
+            }
+        }
+    }
+
+    private synchronized void observeCallbackNanos(Map<String, Long> callbackNanos, ObservableDoubleMeasurement total, ObservableDoubleMeasurement top,
+                                                   Attributes attributes) {
+        List<Map.Entry<String, Long>> deltas = new ArrayList<>(callbackNanos.size());
+        long totalNanos = 0L;
+        for (Map.Entry<String, Long> nanos : callbackNanos.entrySet()) {
+            // Instruments which have been removed and registered again start from zero.
+            long delta = Math.max(0L, nanos.getValue() - previousCallbackNanos.getOrDefault(nanos.getKey(), 0L));
+            totalNanos += delta;
+            deltas.add(Map.entry(nanos.getKey(), delta));
+        }
+        previousCallbackNanos = new HashMap<>(callbackNanos);
+        total.record(totalNanos / 1_000.0, attributes);
+
+        deltas.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        List<Map.Entry<String, Long>> topDeltas = deltas.subList(0, Math.min(topInstruments, deltas.size()));
+        for (Map.Entry<String, Long> delta : topDeltas) {
+            top.record(delta.getValue() / 1_000.0, attributes.toBuilder().put(INSTRUMENT_KEY, delta.getKey()).build());
+        }
+        if (log.isDebugEnabled() && !topDeltas.isEmpty()) {
+            StringBuilder breakdown = new StringBuilder();
+            for (Map.Entry<String, Long> delta : topDeltas) {
+                breakdown.append(System.lineSeparator()).append("  ").append(delta.getKey()).append(": ").append(delta.getValue() / 1_000).append("us");
+            }
+            log.debug("Most expensive instrument callbacks of {} reporter since previous collection, total {}us:{}", reporter, totalNanos / 1_000, breakdown);
+        }
+    }
+
+    private static final class Labels {
+
+        private final Attributes attributes;
+        private final Attributes addAttributes;
+        private final Attributes removeAttributes;
+
+        private Labels(String reporter, Context context) {
+            this.attributes = context.getAttributes().toBuilder()
+                    .put(NAMESPACE_KEY, context.getNamespace())
+                    .put(REPORTER_KEY, reporter)
+                    .build();
+            this.addAttributes = attributes.toBuilder().put(OPERATION_KEY, "add").build();
+            this.removeAttributes = attributes.toBuilder().put(OPERATION_KEY, "remove").build();
+        }
+    }
+
+    @Override
+    public void close() {
+        List<AutoCloseable> closedObservables;
+        synchronized (observableLock) {
+            closed = true;
+            closedObservables = new ArrayList<>(observables);
+            observables.clear();
+        }
+        closedObservables.forEach(SelfMetrics::closeObservable);
+    }
+
+    private static void closeObservable(AutoCloseable observable) {
+        try {
+            observable.close();
+        } catch (Exception e) {
+            log.warn("Error occurred closing observable {}", observable, e);
+        }
+    }
+}
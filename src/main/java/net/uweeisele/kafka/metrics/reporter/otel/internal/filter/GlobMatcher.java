@@ -0,0 +1,78 @@
+package net.uweeisele.kafka.metrics.reporter.otel.internal.filter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Matches a value against a set of glob patterns, where {@code *} matches any sequence and {@code ?} any single character.
+ * <p>
+ * Patterns without wildcards and patterns whose only wildcard is a trailing {@code *} are compiled into a
+ * {@link PrefixTrie}. All other patterns are compiled into regular expressions once.
+ */
+public class GlobMatcher {
+
+    private final PrefixTrie trie = new PrefixTrie();
+    private final List<Pattern> patterns = new ArrayList<>();
+
+    public GlobMatcher(Collection<String> globs) {
+        for (String glob : globs) {
+            int firstWildcard = indexOfWildcard(glob);
+            if (firstWildcard < 0) {
+                trie.addExact(glob);
+            } else if (firstWildcard == glob.length() - 1 && glob.charAt(firstWildcard) == '*') {
+                trie.addPrefix(glob.substring(0, firstWildcard));
+            } else {
+                patterns.add(toPattern(glob));
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return trie.isEmpty() && patterns.isEmpty();
+    }
+
+    public boolean matches(String value) {
+        if (trie.matches(value)) {
+            return true;
+        }
+        for (int i = 0; i < patterns.size(); i++) {
+            if (patterns.get(i).matcher(value).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int indexOfWildcard(String glob) {
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' || c == '?') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static Pattern toPattern(String glob) {
+        StringBuilder regex = new StringBuilder(glob.length() + 8);
+        StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' || c == '?') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '*' ? ".*" : ".");
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return Pattern.compile(regex.toString());
+    }
+}
@@ -0,0 +1,113 @@
+package net.uweeisele.kafka.metrics.reporter.otel.internal.filter;
+
+import net.uweeisele.kafka.metrics.reporter.otel.OtelMetricsReporterConfig;
+import org.apache.kafka.common.config.ConfigException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decides which metrics get instruments at all.
+ * <p>
+ * Metric rules have the form {@code <group>:<name>} or just {@code <group>}, tag rules the form {@code <tag>=<value>}.
+ * All parts are glob patterns. A metric is included if it matches any metric include rule (or there are none), matches
+ * no metric exclude rule, and none of its tag values is rejected by the tag rules. A tag value is rejected if there are
+ * include rules for its tag and none of them matches, or if an exclude rule for its tag matches.
+ * <p>
+ * All rules are compiled once. The decision of the metric rules is memoized per group and name, because they are the
+ * same for all partitions, topics or clients of a metric.
+ */
+public class MetricFilter {
+
+    public static final MetricFilter INCLUDE_ALL = new MetricFilter(List.of(), List.of(), List.of(), List.of());
+
+    private final GlobMatcher metricIncludes;
+    private final GlobMatcher metricExcludes;
+    private final Map<String, GlobMatcher> tagIncludes;
+    private final Map<String, GlobMatcher> tagExcludes;
+
+    private final Map<String, Boolean> metricDecisions = new ConcurrentHashMap<>();
+
+    MetricFilter(List<String> metricIncludes, List<String> metricExcludes, List<String> tagIncludes, List<String> tagExcludes) {
+        this.metricIncludes = new GlobMatcher(toMetricGlobs(metricIncludes));
+        this.metricExcludes = new GlobMatcher(toMetricGlobs(metricExcludes));
+        this.tagIncludes = toTagMatchers(tagIncludes);
+        this.tagExcludes = toTagMatchers(tagExcludes);
+    }
+
+    public static MetricFilter create(OtelMetricsReporterConfig config) {
+        return create(config.metricsInclude(), config.metricsExclude(), config.tagsInclude(), config.tagsExclude());
+    }
+
+    public static MetricFilter create(List<String> metricIncludes, List<String> metricExcludes, List<String> tagIncludes, List<String> tagExcludes) {
+        if (metricIncludes.isEmpty() && metricExcludes.isEmpty() && tagIncludes.isEmpty() && tagExcludes.isEmpty()) {
+            return INCLUDE_ALL;
+        }
+        return new MetricFilter(metricIncludes, metricExcludes, tagIncludes, tagExcludes);
+    }
+
+    public boolean test(String group, String name, Map<String, String> tags) {
+        return testMetric(group, name) && testTags(tags);
+    }
+
+    boolean testMetric(String group, String name) {
+        if (this == INCLUDE_ALL) {
+            return true;
+        }
+        return metricDecisions.computeIfAbsent(group + ":" + name, this::evaluateMetric);
+    }
+
+    boolean evaluateMetric(String metric) {
+        return (metricIncludes.isEmpty() || metricIncludes.matches(metric)) && !metricExcludes.matches(metric);
+    }
+
+    boolean testTags(Map<String, String> tags) {
+        if (tagIncludes.isEmpty() && tagExcludes.isEmpty()) {
+            return true;
+        }
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            GlobMatcher include = tagIncludes.get(tag.getKey());
+            if (include != null && !include.matches(tag.getValue())) {
+                return false;
+            }
+            GlobMatcher exclude = tagExcludes.get(tag.getKey());
+            if (exclude != null && exclude.matches(tag.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<String> toMetricGlobs(List<String> rules) {
+        List<String> globs = new ArrayList<>(rules.size());
+        for (String rule : rules) {
+            int separator = rule.indexOf(':');
+            String group = separator < 0 ? rule : rule.substring(0, separator);
+            String name = separator < 0 ? "*" : rule.substring(separator + 1);
+            if (name.equals("*") && group.endsWith("*") && group.indexOf('*') == group.length() - 1 && group.indexOf('?') < 0) {
+                // Groups never contain ':', so 'prefix*:*' matches exactly the same metrics as the trie friendly 'prefix*'.
+                globs.add(group);
+            } else {
+                globs.add(group + ":" + name);
+            }
+        }
+        return globs;
+    }
+
+    private static Map<String, GlobMatcher> toTagMatchers(List<String> rules) {
+        Map<String, List<String>> globsByTag = new HashMap<>();
+        for (String rule : rules) {
+            int separator = rule.indexOf('=');
+            if (separator <= 0) {
+                throw new ConfigException(String.format("Invalid tag rule '%s', expected <tag>=<value>", rule));
+            }
+            globsByTag.computeIfAbsent(rule.substring(0, separator), t -> new ArrayList<>()).add(rule.substring(separator + 1));
+        }
+        Map<String, GlobMatcher> matchers = new HashMap<>();
+        globsByTag.forEach((tag, globs) -> matchers.put(tag, new GlobMatcher(globs)));
+        return matchers;
+    }
+}
@@ -0,0 +1,52 @@
+package net.uweeisele.kafka.metrics.reporter.otel.internal.filter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Matches a value against many literal prefixes and exact values in a single pass over its characters.
+ */
+class PrefixTrie {
+
+    private final Node root = new Node();
+
+    void addPrefix(String prefix) {
+        node(prefix).prefix = true;
+    }
+
+    void addExact(String value) {
+        node(value).exact = true;
+    }
+
+    boolean isEmpty() {
+        return root.children.isEmpty() && !root.prefix && !root.exact;
+    }
+
+    boolean matches(String value) {
+        Node node = root;
+        for (int i = 0; i < value.length(); i++) {
+            if (node.prefix) {
+                return true;
+            }
+            node = node.children.get(value.charAt(i));
+            if (node == null) {
+                return false;
+            }
+        }
+        return node.prefix || node.exact;
+    }
+
+    private Node node(String value) {
+        Node node = root;
+        for (int i = 0; i < value.length(); i++) {
+            node = node.children.computeIfAbsent(value.charAt(i), c -> new Node());
+        }
+        return node;
+    }
+
+    private static final class Node {
+        private final Map<Character, Node> children = new HashMap<>(4);
+        private boolean prefix;
+        private boolean exact;
+    }
+}
@@ -0,0 +1,16 @@
+package net.uweeisele.kafka.metrics.reporter.otel.internal.instrument;
+
+/**
+ * How the values of several metrics are combined, if they are recorded as the same series.
+ */
+enum Aggregation {
+
+    /**
+     * Only the most recently registered metric is recorded, e.g. if Kafka replaces a metric.
+     */
+    LAST,
+    SUM,
+    MAX,
+    MIN
+
+}
@@ -0,0 +1,113 @@
+package net.uweeisele.kafka.metrics.reporter.otel.internal.instrument;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * A metric value which serves its last reading instead of reading again, if the reading is younger than the minimum
+ * refresh interval of its {@link ValueCache}, or if the {@link CollectionBudget} says so.
+ * It wraps either a double or a long value.
+ */
+class CachedValue implements DoubleSupplier, LongSupplier {
+
+    private static final Logger log = LoggerFactory.getLogger(CachedValue.class);
+
+    private final long minRefreshNanos;
+    private final CollectionBudget budget;
+    private final DoubleSupplier doubleValue;
+    private final LongSupplier longValue;
+
+    private volatile boolean read = false;
+    private volatile long lastRead;
+    private volatile double lastDouble;
+    private volatile long lastLong;
+    private volatile boolean slow = false;
+    private final AtomicBoolean refreshing = new AtomicBoolean(false);
+    private final Runnable refresher = this::refresh;
+
+    CachedValue(long minRefreshNanos, CollectionBudget budget, DoubleSupplier doubleValue, LongSupplier longValue) {
+        this.minRefreshNanos = minRefreshNanos;
+        this.budget = budget;
+        this.doubleValue = doubleValue;
+        this.longValue = longValue;
+    }
+
+    @Override
+    public double getAsDouble() {
+        if (serveLastReading()) {
+            return lastDouble;
+        }
+        long start = startRead();
+        try {
+            lastDouble = doubleValue.getAsDouble();
+            read = true;
+            return lastDouble;
+        } finally {
+            endRead(start);
+        }
+    }
+
+    @Override
+    public long getAsLong() {
+        if (serveLastReading()) {
+            return lastLong;
+        }
+        long start = startRead();
+        try {
+            lastLong = longValue.getAsLong();
+            read = true;
+            return lastLong;
+        } finally {
+            endRead(start);
+        }
+    }
+
+    private boolean serveLastReading() {
+        if (!read) {
+            return false;
+        }
+        if (minRefreshNanos > 0 && System.nanoTime() - lastRead < minRefreshNanos) {
+            return true;
+        }
+        if (budget != null && (budget.isExhausted() || slow)) {
+            if (refreshing.compareAndSet(false, true)) {
+                budget.refresh(refresher);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private long startRead() {
+        long start = System.nanoTime();
+        // Concurrent collections of other readers serve the previous reading instead of reading in parallel.
+        lastRead = start;
+        return start;
+    }
+
+    private void endRead(long start) {
+        if (budget != null) {
+            slow = budget.spend(start);
+        }
+    }
+
+    private void refresh() {
+        long start = startRead();
+        try {
+            if (doubleValue != null) {
+                lastDouble = doubleValue.getAsDouble();
+            } else {
+                lastLong = longValue.getAsLong();
+            }
+        } catch (RuntimeException e) {
+            log.debug("Error occurred refreshing metric value", e);
+        } finally {
+            slow = budget.isSlow(System.nanoTime() - start);
+            refreshing.set(false);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package net.uweeisele.kafka.metrics.reporter.otel.internal.instrument;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the time the callbacks of a registry spend reading metric values per collection cycle.
+ * <p>
+ * Every value is wrapped into a {@link CachedValue}, which keeps its last reading. Once the reads of the current
+ * cycle have used up the budget, the remaining values serve their last reading and are refreshed asynchronously.
+ * Values whose read alone takes longer than the slow read threshold are always served from their last reading
+ * and refreshed asynchronously, until a refresh is fast again. Values without a reading are always read directly.
+ * <p>
+ * There is no notification when a collection cycle starts. A new cycle is assumed if no value has been accessed for
+ * {@link #CYCLE_GAP}, which is much shorter than any sensible export interval.
+ */
+class CollectionBudget implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(CollectionBudget.class);
+
+    static final Duration CYCLE_GAP = Duration.ofMillis(100);
+
+    private final long budgetNanos;
+    private final long slowReadNanos;
+    private final long cycleGapNanos = CYCLE_GAP.toNanos();
+
+    private final AtomicLong spentNanos = new AtomicLong();
+    private volatile long lastAccess = System.nanoTime();
+
+    private final ExecutorService refresher;
+
+    CollectionBudget(Duration budget, Duration slowRead) {
+        this.budgetNanos = budget.toNanos();
+        this.slowReadNanos = slowRead.toNanos();
+        this.refresher = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "otel-metrics-reporter-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return {@code true} if the reads of the current cycle have used up the budget.
+     */
+    boolean isExhausted() {
+        long now = System.nanoTime();
+        if (now - lastAccess > cycleGapNanos) {
+            spentNanos.set(0L);
+        }
+        lastAccess = now;
+        return spentNanos.get() >= budgetNanos;
+    }
+
+    /**
+     * @param start the {@link System#nanoTime()} at which the read started.
+     * @return {@code true} if the read has been slow.
+     */
+    boolean spend(long start) {
+        long end = System.nanoTime();
+        lastAccess = end;
+        long elapsed = end - start;
+        spentNanos.addAndGet(elapsed);
+        return elapsed > slowReadNanos;
+    }
+
+    /**
+     * @return {@code true} if the refresh took longer than the slow read threshold.
+     */
+    boolean isSlow(long elapsedNanos) {
+        return elapsedNanos > slowReadNanos;
+    }
+
+    void refresh(Runnable refresh) {
+        try {
+            refresher.execute(refresh);
+        } catch (RuntimeException e) {
+            log.debug("Could not schedule refresh of metric value", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        refresher.shutdownNow();
+    }
+}
@@ -0,0 +1,108 @@
+package net.uweeisele.kafka.metrics.reporter.otel.internal.instrument;
+
+import net.uweeisele.kafka.metrics.reporter.otel.OtelMetricsReporterConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides whether unchanged values of a {@link Series} are recorded and when an idle series expires.
+ * <p>
+ * After a value has not changed for the configured number of collection cycles, it is only recorded every heartbeat
+ * cycles. After it has not changed for the TTL, the series expires: it is not recorded anymore and the idle monitor
+ * closes its observable, or the observable of its instrument once all series of the instrument have expired. The
+ * monitor reads the values of expired series periodically and observes them again as soon as they change.
+ */
+class IdlePolicy implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(IdlePolicy.class);
+
+    private static final Duration MAX_CHECK_INTERVAL = Duration.ofSeconds(30);
+
+    private final int suppressAfterCycles;
+    private final int heartbeatCycles;
+    private final long ttlNanos;
+
+    private final Set<Series> expiredSeries = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService monitor;
+
+    /**
+     * @param suppressAfterCycles the number of unchanged cycles after which a value is suppressed, or {@code 0}.
+     * @param heartbeatCycles every how many cycles a suppressed value is recorded anyway, or {@code 0} for never.
+     * @param ttl the time after which an unchanged series expires, or {@link Duration#ZERO} for never.
+     */
+    IdlePolicy(int suppressAfterCycles, int heartbeatCycles, Duration ttl) {
+        this.suppressAfterCycles = suppressAfterCycles;
+        this.heartbeatCycles = heartbeatCycles;
+        this.ttlNanos = ttl.toNanos();
+        if (ttlNanos > 0) {
+            this.monitor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "otel-metrics-reporter-idle-monitor");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long checkIntervalMillis = Math.max(1L, Math.min(ttl.toMillis(), MAX_CHECK_INTERVAL.toMillis()));
+            monitor.scheduleWithFixedDelay(this::checkExpiredSeries, checkIntervalMillis, checkIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.monitor = null;
+        }
+    }
+
+    /**
+     * @return {@code null} if neither suppression nor expiry are configured.
+     */
+    static IdlePolicy create(OtelMetricsReporterConfig config) {
+        if (config.suppressUnchangedCycles() == 0 && config.idleTtl().isZero()) {
+            return null;
+        }
+        return new IdlePolicy(config.suppressUnchangedCycles(), config.suppressHeartbeatCycles(), config.idleTtl());
+    }
+
+    boolean shouldRecord(int unchangedCycles) {
+        if (suppressAfterCycles == 0 || unchangedCycles <= suppressAfterCycles) {
+            return true;
+        }
+        return heartbeatCycles > 0 && (unchangedCycles - suppressAfterCycles) % heartbeatCycles == 0;
+    }
+
+    boolean isExpired(long unchangedNanos) {
+        return ttlNanos > 0 && unchangedNanos > ttlNanos;
+    }
+
+    void expired(Series series) {
+        log.trace("Series {} of instrument {} expired", series, series.getInstrument());
+        expiredSeries.add(series);
+    }
+
+    void checkExpiredSeries() {
+        for (Series series : expiredSeries) {
+            try {
+                if (series.isClosed() || !series.isExpired()) {
+                    expiredSeries.remove(series);
+                } else if (series.hasChanged()) {
+                    log.trace("Series {} of instrument {} changed, observing it again", series, series.getInstrument());
+                    expiredSeries.remove(series);
+                    series.revive();
+                } else {
+                    series.getInstrument().suspend(series);
+                }
+            } catch (RuntimeException e) {
+                log.debug("Error occurred checking expired series {} of instrument {}", series, series.getInstrument(), e);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (monitor != null) {
+            monitor.shutdownNow();
+        }
+        expiredSeries.clear();
+    }
+}
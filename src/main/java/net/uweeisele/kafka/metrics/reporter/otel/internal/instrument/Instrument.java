@@ -0,0 +1,341 @@
+package net.uweeisele.kafka.metrics.reporter.otel.internal.instrument;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.Meter;
+import io.opentelemetry.api.metrics.ObservableDoubleMeasurement;
+import io.opentelemetry.api.metrics.ObservableLongMeasurement;
+import io.opentelemetry.instrumentation.api.internal.GuardedBy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * All series registered under the same instrument name and type.
+ * <p>
+ * In batched mode, the instrument owns exactly one observable whose callback iterates a compact array of its series.
+ * The array is only rebuilt during collection if series have been added or removed since the last collection.
+ * <p>
+ * With a cardinality limit, metrics with a new attribute set are recorded in a single overflow series with the
+ * attribute {@value #OVERFLOW_ATTRIBUTE_NAME} as soon as the instrument has as many series as the limit.
+ * The overflow series of a counter sums up their values, so that the total of the counter is kept. Summing up gauges
+ * like lags or sizes would report a value that no metric has, so the overflow series of a gauge records their maximum
+ * instead. Metrics stay in the overflow series until they are removed.
+ * <p>
+ * With a {@link RollupRule}, the attributes dropped by the rule are removed before the series is looked up, so that
+ * all metrics which only differ in these attributes share one series aggregated by the rule.
+ * <p>
+ * With an {@link IdlePolicy}, expired series are suspended: without batching, the observable of the series is closed,
+ * with batching, the observable of the instrument is closed once all of its series have expired. They are resumed as
+ * soon as a series changes again.
+ */
+class Instrument {
+
+    private static final Logger log = LoggerFactory.getLogger(Instrument.class);
+
+    private static final Series[] NO_SERIES = new Series[0];
+
+    static final String OVERFLOW_ATTRIBUTE_NAME = "otel.metric.overflow";
+    static final Attributes OVERFLOW_ATTRIBUTES = Attributes.of(AttributeKey.booleanKey(OVERFLOW_ATTRIBUTE_NAME), true);
+
+    private final Meter meter;
+    private final String name;
+    private final InstrumentType type;
+    private final String description;
+    private final int cardinalityLimit;
+    private final RollupRule rollupRule;
+    private final boolean timed;
+    private final boolean batched;
+    private final IdlePolicy idlePolicy;
+    private final AtomicLong callbackNanos = new AtomicLong();
+
+    @GuardedBy("this")
+    private final Map<Attributes, Series> series = new LinkedHashMap<>();
+    @GuardedBy("this")
+    private Series overflowSeries;
+    @GuardedBy("this")
+    private Series[] seriesSnapshot = NO_SERIES;
+    @GuardedBy("this")
+    private boolean modified = false;
+    @GuardedBy("this")
+    private boolean retired = false;
+
+    private final Object observableLock = new Object();
+    @GuardedBy("observableLock")
+    private AutoCloseable observable;
+    @GuardedBy("observableLock")
+    private boolean closed = false;
+
+    /**
+     * @param cardinalityLimit the maximum number of series, or {@code 0} for no limit.
+     * @param rollupRule the rule which rolls up the series of this instrument, or {@code null}.
+     * @param timed whether the time spent in the callbacks of this instrument is measured.
+     * @param batched whether the instrument records all of its series with a single observable.
+     * @param idlePolicy the policy for unchanged and idle series, or {@code null}.
+     */
+    Instrument(Meter meter, String name, InstrumentType type, String description, int cardinalityLimit, RollupRule rollupRule, boolean timed,
+               boolean batched, IdlePolicy idlePolicy) {
+        this.meter = meter;
+        this.name = name;
+        this.type = type;
+        this.description = description;
+        this.cardinalityLimit = cardinalityLimit;
+        this.rollupRule = rollupRule;
+        this.timed = timed;
+        this.batched = batched;
+        this.idlePolicy = idlePolicy;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    InstrumentType getType() {
+        return type;
+    }
+
+    String getDescription() {
+        return description;
+    }
+
+    /**
+     * @return the total time spent in the callbacks of this instrument, if it is timed.
+     */
+    long getCallbackNanos() {
+        return callbackNanos.get();
+    }
+
+    /**
+     * Adds the member to the series with the given attributes, or to the overflow series if the cardinality limit has
+     * been reached.
+     *
+     * @return the series the member has been added to, or {@code null} if the instrument has already been retired,
+     *         because its last series has been removed.
+     */
+    synchronized Series add(Attributes attributes, Series.Member member) {
+        if (retired) {
+            return null;
+        }
+        if (rollupRule != null) {
+            attributes = rollupRule.apply(attributes);
+        }
+        Series target = series.get(attributes);
+        if (target == null) {
+            if (cardinalityLimit > 0 && series.size() - (overflowSeries != null ? 1 : 0) >= cardinalityLimit) {
+                if (overflowSeries == null) {
+                    log.warn("Instrument {} reached its cardinality limit of {} series. Further series are recorded as overflow.", name, cardinalityLimit);
+                    overflowSeries = new Series(this, OVERFLOW_ATTRIBUTES, isMonotonic() ? Aggregation.SUM : Aggregation.MAX, isMonotonic(), idlePolicy);
+                    series.put(OVERFLOW_ATTRIBUTES, overflowSeries);
+                    modified = true;
+                }
+                target = overflowSeries;
+            } else {
+                target = new Series(this, attributes, rollupRule != null ? rollupRule.getAggregation() : Aggregation.LAST, isMonotonic(), idlePolicy);
+                series.put(attributes, target);
+                modified = true;
+            }
+        }
+        target.add(member);
+        return target;
+    }
+
+    /**
+     * Removes the member from its series. A series without members is removed and closed.
+     *
+     * @return {@code true} if the removed series was the last one and the instrument has been retired.
+     */
+    boolean remove(Series target, Series.Member member) {
+        boolean emptied = false;
+        boolean retiredNow;
+        synchronized (this) {
+            if (target.remove(member) && series.remove(target.getAttributes(), target)) {
+                if (target == overflowSeries) {
+                    overflowSeries = null;
+                }
+                modified = true;
+                emptied = true;
+                if (series.isEmpty()) {
+                    retired = true;
+                }
+            }
+            retiredNow = retired;
+        }
+        // Closing an observable may wait for a running collection, which in turn may wait for this instrument.
+        if (emptied) {
+            target.close();
+        }
+        return retiredNow;
+    }
+
+    boolean isOverflow(Series target) {
+        return target.getAttributes() == OVERFLOW_ATTRIBUTES;
+    }
+
+    synchronized boolean isRetired() {
+        return retired;
+    }
+
+    synchronized Series[] series() {
+        if (modified) {
+            seriesSnapshot = series.values().toArray(NO_SERIES);
+            modified = false;
+        }
+        return seriesSnapshot;
+    }
+
+    /**
+     * Registers the single observable of this instrument, unless it has already been registered or closed.
+     */
+    void observeBatched() {
+        synchronized (observableLock) {
+            if (!closed && observable == null) {
+                observable = timed
+                        ? buildObservable(timed(this::observeAll), timed(this::observeAll))
+                        : buildObservable(this::observeAll, this::observeAll);
+            }
+        }
+    }
+
+    /**
+     * Registers the observable of the series again, after it has been suspended by {@link #suspend(Series)}.
+     */
+    void resume(Series target) {
+        if (batched) {
+            observeBatched();
+        } else {
+            target.observeWith(this);
+        }
+    }
+
+    /**
+     * Closes the observable of an expired series, or of this instrument if all of its series have expired. Unlike
+     * {@link #close()}, the observable can be registered again by {@link #resume(Series)}.
+     */
+    void suspend(Series target) {
+        if (!batched) {
+            target.suspend();
+            return;
+        }
+        AutoCloseable suspendedObservable;
+        synchronized (observableLock) {
+            if (!allExpired()) {
+                return;
+            }
+            suspendedObservable = observable;
+            observable = null;
+        }
+        if (suspendedObservable != null) {
+            log.debug("All series of instrument {} expired, suspending its observable", this);
+            closeObservable(suspendedObservable);
+            // A series which has been added meanwhile found the observable still registered and did not register it.
+            if (!allExpired()) {
+                observeBatched();
+            }
+        }
+    }
+
+    private boolean allExpired() {
+        for (Series s : series()) {
+            if (!s.isExpired()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    AutoCloseable observe(Series series) {
+        return timed
+                ? buildObservable(timed(series::observe), timed(series::observe))
+                : buildObservable(series::observe, series::observe);
+    }
+
+    private <T> Consumer<T> timed(Consumer<T> callback) {
+        return measurement -> {
+            long start = System.nanoTime();
+            try {
+                callback.accept(measurement);
+            } finally {
+                callbackNanos.addAndGet(System.nanoTime() - start);
+            }
+        };
+    }
+
+    /**
+     * Closes the observable of this instrument and of all of its series.
+     */
+    void close() {
+        for (Series s : series()) {
+            s.close();
+        }
+        AutoCloseable closedObservable;
+        synchronized (observableLock) {
+            closed = true;
+            closedObservable = observable;
+            observable = null;
+        }
+        if (closedObservable != null) {
+            closeObservable(closedObservable);
+        }
+    }
+
+    private void observeAll(ObservableDoubleMeasurement measurement) {
+        for (Series s : series()) {
+            try {
+                s.observe(measurement);
+            } catch (RuntimeException e) {
+                log.debug("Error occurred observing series {} of instrument {}", s, name, e);
+            }
+        }
+    }
+
+    private void observeAll(ObservableLongMeasurement measurement) {
+        for (Series s : series()) {
+            try {
+                s.observe(measurement);
+            } catch (RuntimeException e) {
+                log.debug("Error occurred observing series {} of instrument {}", s, name, e);
+            }
+        }
+    }
+
+    private boolean isMonotonic() {
+        return type != InstrumentType.DOUBLE_GAUGE;
+    }
+
+    private AutoCloseable buildObservable(Consumer<ObservableDoubleMeasurement> doubleCallback, Consumer<ObservableLongMeasurement> longCallback) {
+        switch (type) {
+            case DOUBLE_GAUGE:
+                return meter.gaugeBuilder(name)
+                        .setDescription(description)
+                        .buildWithCallback(doubleCallback);
+            case DOUBLE_COUNTER:
+                return meter.counterBuilder(name)
+                        .ofDoubles()
+                        .setDescription(description)
+                        .buildWithCallback(doubleCallback);
+            case LONG_COUNTER:
+                return meter.counterBuilder(name)
+                        .setDescription(description)
+                        .buildWithCallback(longCallback);
+            default:
+                throw new IllegalStateException("Unsupported instrument type: " + type);
+        }
+    }
+
+    static void closeObservable(AutoCloseable observable) {
+        try {
+            observable.close();
+        } catch (Exception e) {
+            log.warn("Error occurred closing observable {}", observable, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s(%s)", name, type);
+    }
+}
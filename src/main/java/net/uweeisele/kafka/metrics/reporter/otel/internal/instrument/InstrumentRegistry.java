@@ -0,0 +1,288 @@
+package net.uweeisele.kafka.metrics.reporter.otel.internal.instrument;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.LongCounter;
+import io.opentelemetry.api.metrics.Meter;
+import net.uweeisele.kafka.metrics.reporter.otel.OtelMetricsReporterConfig;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Registers observable instruments on behalf of the metrics reporters.
+ * <p>
+ * Series are grouped by instrument name and type. Without batching, every series gets its own observable, like calling
+ * {@code buildWithCallback} for every metric. With batching, each instrument registers a single observable, which
+ * records all of its series in one callback. This keeps the number of callbacks and the per-instrument bookkeeping
+ * of the SDK proportional to the number of instrument names instead of the number of metrics.
+ * <p>
+ * The returned handles remove the series again. The last removed series of an instrument closes its observable.
+ * <p>
+ * With a cardinality limit, every metric which is recorded in the overflow series of an instrument increments the
+ * counter {@value #OVERFLOW_COUNTER_NAME}. Roll-up rules let metrics of an instrument share series, see {@link RollupRule}.
+ * <p>
+ * With a value cache, values are read at most once per minimum refresh interval, no matter how many metric readers
+ * collect them, see {@link ValueCache}. With a collection budget, slow values and values read after the budget of a
+ * collection has been used up serve their last reading and are refreshed asynchronously, see {@link CollectionBudget}.
+ * <p>
+ * With an idle policy, unchanged values are suppressed and series which have not changed for a while expire until
+ * they change again, see {@link IdlePolicy}.
+ * <p>
+ * A registry can be shared by several reporters, see {@link SharedInstrumentRegistries}. It is reference counted, every
+ * call of {@link #close()} releases one reference and only the last one closes the registry.
+ */
+public class InstrumentRegistry implements AutoCloseable {
+
+    static final String OVERFLOW_COUNTER_NAME = "otel.metrics.reporter.cardinality.overflows";
+    private static final AttributeKey<String> INSTRUMENT_KEY = AttributeKey.stringKey("instrument");
+
+    private final Meter meter;
+    private final boolean batched;
+    private final int cardinalityLimit;
+    private final List<RollupRule> rollupRules;
+    private final boolean timed;
+    private final ValueCache valueCache;
+    private final IdlePolicy idlePolicy;
+    private final LongCounter overflows;
+
+    private final ConcurrentMap<InstrumentKey, Instrument> instruments = new ConcurrentHashMap<>();
+    private final AtomicInteger references = new AtomicInteger(1);
+    private Runnable releasedListener = () -> {};
+
+    public InstrumentRegistry(Meter meter, boolean batched) {
+        this(meter, batched, 0, List.of(), false, null, null);
+    }
+
+    /**
+     * @param cardinalityLimit the maximum number of series per instrument, or {@code 0} for no limit.
+     * @param rollupRules the roll-up rules, the first rule matching an instrument name applies.
+     * @param timed whether the time spent in the callbacks of each instrument is measured, see {@link #callbackNanos()}.
+     * @param valueCache the cache of the last readings of all values, or {@code null} to always read all values.
+     * @param idlePolicy the policy for unchanged and idle series, or {@code null} to always record all series.
+     */
+    InstrumentRegistry(Meter meter, boolean batched, int cardinalityLimit, List<RollupRule> rollupRules, boolean timed, ValueCache valueCache,
+                       IdlePolicy idlePolicy) {
+        this.meter = meter;
+        this.batched = batched;
+        this.cardinalityLimit = cardinalityLimit;
+        this.rollupRules = rollupRules;
+        this.timed = timed;
+        this.valueCache = valueCache;
+        this.idlePolicy = idlePolicy;
+        this.overflows = cardinalityLimit > 0
+                ? meter.counterBuilder(OVERFLOW_COUNTER_NAME)
+                        .setDescription("The number of metrics which have been recorded in the overflow series of an instrument, because it reached its cardinality limit.")
+                        .build()
+                : null;
+    }
+
+    /**
+     * @return a new registry, or a shared one if shared registries are enabled.
+     */
+    public static InstrumentRegistry create(Meter meter, OtelMetricsReporterConfig config) {
+        if (config.sharedRegistryEnabled()) {
+            return SharedInstrumentRegistries.acquire(meter, config);
+        }
+        return newRegistry(meter, config);
+    }
+
+    static InstrumentRegistry newRegistry(Meter meter, OtelMetricsReporterConfig config) {
+        return new InstrumentRegistry(meter, config.batchCallbacksEnabled(), config.cardinalityLimit(), RollupRule.parseAll(config.rollupRules()), config.selfMetricsEnabled(),
+                ValueCache.create(config), IdlePolicy.create(config));
+    }
+
+    public AutoCloseable registerDoubleGauge(String name, String description, Attributes attributes, DoubleSupplier value) {
+        return register(name, InstrumentType.DOUBLE_GAUGE, description, attributes, Series.ofDoubles(cached(value)));
+    }
+
+    public AutoCloseable registerDoubleCounter(String name, String description, Attributes attributes, DoubleSupplier value) {
+        return register(name, InstrumentType.DOUBLE_COUNTER, description, attributes, Series.ofDoubles(cached(value)));
+    }
+
+    public AutoCloseable registerLongCounter(String name, String description, Attributes attributes, LongSupplier value) {
+        return register(name, InstrumentType.LONG_COUNTER, description, attributes, Series.ofLongs(cached(value)));
+    }
+
+    private DoubleSupplier cached(DoubleSupplier value) {
+        return valueCache != null ? valueCache.wrap(value) : value;
+    }
+
+    private LongSupplier cached(LongSupplier value) {
+        return valueCache != null ? valueCache.wrap(value) : value;
+    }
+
+    /**
+     * @return the number of registered instruments per type.
+     */
+    public Map<InstrumentType, Integer> instrumentCounts() {
+        Map<InstrumentType, Integer> counts = new EnumMap<>(InstrumentType.class);
+        for (InstrumentType type : InstrumentType.values()) {
+            counts.put(type, 0);
+        }
+        for (Instrument instrument : instruments.values()) {
+            counts.merge(instrument.getType(), 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    /**
+     * @return the number of series of all registered instruments.
+     */
+    public int seriesCount() {
+        int count = 0;
+        for (Instrument instrument : instruments.values()) {
+            count += instrument.series().length;
+        }
+        return count;
+    }
+
+    /**
+     * @return the total time spent in the callbacks of every registered instrument name. Empty if the registry is not timed.
+     */
+    public Map<String, Long> callbackNanos() {
+        if (!timed) {
+            return Map.of();
+        }
+        Map<String, Long> nanos = new HashMap<>();
+        for (Instrument instrument : instruments.values()) {
+            nanos.merge(instrument.getName(), instrument.getCallbackNanos(), Long::sum);
+        }
+        return nanos;
+    }
+
+    Collection<Instrument> instruments() {
+        return instruments.values();
+    }
+
+    /**
+     * Sets the listener which is called once the last reference has been released. Must be set before the registry is
+     * handed out.
+     */
+    void onReleased(Runnable listener) {
+        this.releasedListener = listener;
+    }
+
+    /**
+     * Adds a reference to the registry, unless it has already been closed.
+     *
+     * @return whether a reference has been added.
+     */
+    boolean retain() {
+        int current;
+        do {
+            current = references.get();
+            if (current <= 0) {
+                return false;
+            }
+        } while (!references.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    /**
+     * Releases a reference to the registry. Closes all instruments once the last reference has been released.
+     */
+    @Override
+    public void close() {
+        close(() -> {});
+    }
+
+    /**
+     * Releases a reference to the registry like {@link #close()}, for a reporter which still has registered series.
+     * <p>
+     * If it is the last reference, all instruments are closed at once and the series of the reporter are not removed
+     * one by one. Otherwise, the other reporters keep using the registry and the series are removed by
+     * {@code unregisterAll}.
+     */
+    public void close(Runnable unregisterAll) {
+        if (references.decrementAndGet() != 0) {
+            unregisterAll.run();
+            return;
+        }
+        releasedListener.run();
+        for (Instrument instrument : instruments.values()) {
+            instrument.close();
+        }
+        instruments.clear();
+        if (valueCache != null) {
+            valueCache.close();
+        }
+        if (idlePolicy != null) {
+            idlePolicy.close();
+        }
+    }
+
+    private AutoCloseable register(String name, InstrumentType type, String description, Attributes attributes, Series.Member member) {
+        InstrumentKey key = new InstrumentKey(name, type);
+        Instrument instrument;
+        Series series;
+        while ((series = (instrument = instruments.computeIfAbsent(key, k -> newInstrument(name, type, description))).add(attributes, member)) == null) {
+            // The instrument has been retired concurrently, help removing it before creating a new one.
+            instruments.remove(key, instrument);
+        }
+        if (batched) {
+            instrument.observeBatched();
+        } else {
+            series.observeWith(instrument);
+        }
+        if (overflows != null && instrument.isOverflow(series)) {
+            overflows.add(1, Attributes.of(INSTRUMENT_KEY, name));
+        }
+        Instrument owner = instrument;
+        Series target = series;
+        return () -> unregister(owner, target, member);
+    }
+
+    private Instrument newInstrument(String name, InstrumentType type, String description) {
+        return new Instrument(meter, name, type, description != null ? description : "", cardinalityLimit, findRollupRule(name), timed, batched, idlePolicy);
+    }
+
+    private RollupRule findRollupRule(String name) {
+        for (RollupRule rule : rollupRules) {
+            if (rule.matches(name)) {
+                return rule;
+            }
+        }
+        return null;
+    }
+
+    private void unregister(Instrument instrument, Series series, Series.Member member) {
+        if (instrument.remove(series, member)) {
+            instruments.remove(new InstrumentKey(instrument.getName(), instrument.getType()), instrument);
+            instrument.close();
+        }
+    }
+
+    private static final class InstrumentKey {
+
+        private final String name;
+        private final InstrumentType type;
+
+        private InstrumentKey(String name, InstrumentType type) {
+            this.name = name;
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof InstrumentKey)) return false;
+            InstrumentKey that = (InstrumentKey) o;
+            return name.equals(that.name) && type == that.type;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, type);
+        }
+    }
+}
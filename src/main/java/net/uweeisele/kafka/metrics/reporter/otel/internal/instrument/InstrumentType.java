@@ -0,0 +1,9 @@
+package net.uweeisele.kafka.metrics.reporter.otel.internal.instrument;
+
+public enum InstrumentType {
+
+    DOUBLE_GAUGE,
+    DOUBLE_COUNTER,
+    LONG_COUNTER
+
+}
@@ -0,0 +1,188 @@
+package net.uweeisele.kafka.metrics.reporter.otel.internal.instrument;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Writes the current values of all series of instrument registries in the OpenMetrics text format, without going
+ * through the aggregation of the SDK.
+ * <p>
+ * The sample name and labels of every series are encoded once and kept with the series, so that a scrape only encodes
+ * the values. Instruments of all registries with the same metric family name are written together, instruments whose
+ * type differs from the first one of their family are skipped. Synchronous histograms are not part of the registries
+ * and therefore not written.
+ * <p>
+ * Instances are not thread-safe.
+ */
+public final class OpenMetricsWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(OpenMetricsWriter.class);
+
+    public static final String CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+    private static final byte[] EOF = "# EOF\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NAN = "NaN".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] POSITIVE_INFINITY = "+Inf".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NEGATIVE_INFINITY = "-Inf".getBytes(StandardCharsets.UTF_8);
+
+    private final byte[] digits = new byte[20];
+
+    public void write(Collection<InstrumentRegistry> registries, OutputStream out) throws IOException {
+        Map<String, List<Instrument>> families = new TreeMap<>();
+        for (InstrumentRegistry registry : registries) {
+            for (Instrument instrument : registry.instruments()) {
+                families.computeIfAbsent(familyName(instrument.getName()), k -> new ArrayList<>(1)).add(instrument);
+            }
+        }
+        for (Map.Entry<String, List<Instrument>> family : families.entrySet()) {
+            writeFamily(family.getKey(), family.getValue(), out);
+        }
+        out.write(EOF);
+    }
+
+    private void writeFamily(String familyName, List<Instrument> instruments, OutputStream out) throws IOException {
+        Instrument first = instruments.get(0);
+        StringBuilder header = new StringBuilder();
+        header.append("# TYPE ").append(familyName).append(first.getType() == InstrumentType.DOUBLE_GAUGE ? " gauge\n" : " counter\n");
+        if (!first.getDescription().isEmpty()) {
+            header.append("# HELP ").append(familyName).append(' ');
+            escape(first.getDescription(), false, header);
+            header.append('\n');
+        }
+        out.write(header.toString().getBytes(StandardCharsets.UTF_8));
+        for (Instrument instrument : instruments) {
+            if (instrument.getType() != first.getType()) {
+                log.debug("Skipping instrument {}, because metric family {} has already been written as {}", instrument, familyName, first.getType());
+                continue;
+            }
+            for (Series series : instrument.series()) {
+                if (series.size() > 0) {
+                    writeSeries(familyName, instrument.getType(), series, out);
+                }
+            }
+        }
+    }
+
+    private void writeSeries(String familyName, InstrumentType type, Series series, OutputStream out) throws IOException {
+        byte[] prefix = series.getOpenMetricsPrefix();
+        if (prefix == null) {
+            prefix = encodePrefix(familyName, type, series.getAttributes());
+            series.setOpenMetricsPrefix(prefix);
+        }
+        try {
+            if (type == InstrumentType.LONG_COUNTER) {
+                long value = series.readLong();
+                out.write(prefix);
+                writeLong(value, out);
+            } else {
+                double value = series.readDouble();
+                out.write(prefix);
+                writeDouble(value, out);
+            }
+        } catch (RuntimeException e) {
+            log.debug("Error occurred reading series {} of metric family {}", series, familyName, e);
+            return;
+        }
+        out.write('\n');
+    }
+
+    private void writeDouble(double value, OutputStream out) throws IOException {
+        if (Double.isNaN(value)) {
+            out.write(NAN);
+        } else if (Double.isInfinite(value)) {
+            out.write(value > 0 ? POSITIVE_INFINITY : NEGATIVE_INFINITY);
+        } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            writeLong((long) value, out);
+        } else {
+            out.write(Double.toString(value).getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
+    private void writeLong(long value, OutputStream out) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            out.write(Long.toString(value).getBytes(StandardCharsets.US_ASCII));
+            return;
+        }
+        if (value < 0) {
+            out.write('-');
+            value = -value;
+        }
+        int position = digits.length;
+        do {
+            digits[--position] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        out.write(digits, position, digits.length - position);
+    }
+
+    private static byte[] encodePrefix(String familyName, InstrumentType type, Attributes attributes) {
+        StringBuilder prefix = new StringBuilder(familyName);
+        if (type != InstrumentType.DOUBLE_GAUGE) {
+            prefix.append("_total");
+        }
+        if (!attributes.isEmpty()) {
+            prefix.append('{');
+            boolean first = true;
+            for (Map.Entry<AttributeKey<?>, Object> attribute : attributes.asMap().entrySet()) {
+                if (!first) {
+                    prefix.append(',');
+                }
+                first = false;
+                prefix.append(sanitize(attribute.getKey().getKey(), false)).append("=\"");
+                escape(String.valueOf(attribute.getValue()), true, prefix);
+                prefix.append('"');
+            }
+            prefix.append('}');
+        }
+        prefix.append(' ');
+        return prefix.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the instrument name with all characters which are not allowed in metric names replaced, and without the
+     *         {@code _total} suffix, which is added to the samples of counters.
+     */
+    static String familyName(String instrumentName) {
+        String name = sanitize(instrumentName, true);
+        return name.endsWith("_total") ? name.substring(0, name.length() - "_total".length()) : name;
+    }
+
+    private static String sanitize(String name, boolean colonAllowed) {
+        StringBuilder sanitized = new StringBuilder(name.length() + 1);
+        if (name.isEmpty() || Character.isDigit(name.charAt(0))) {
+            sanitized.append('_');
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            boolean allowed = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || (colonAllowed && c == ':');
+            sanitized.append(allowed ? c : '_');
+        }
+        return sanitized.toString();
+    }
+
+    private static void escape(String value, boolean labelValue, StringBuilder out) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\') {
+                out.append("\\\\");
+            } else if (c == '\n') {
+                out.append("\\n");
+            } else if (c == '"' && labelValue) {
+                out.append("\\\"");
+            } else {
+                out.append(c);
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package net.uweeisele.kafka.metrics.reporter.otel.internal.instrument;
+
+import io.opentelemetry.api.common.Attributes;
+import net.uweeisele.kafka.metrics.reporter.otel.internal.filter.GlobMatcher;
+import org.apache.kafka.common.config.ConfigException;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Drops attributes of all instruments whose name matches the rule, so that the metrics which only differ in these
+ * attributes are recorded as one series. The series combines their values with the aggregation of the rule.
+ * <p>
+ * Rules have the form {@code <instrument name glob>:<attribute>[|<attribute>...]:<sum|max|min>}, e.g.
+ * {@code kafka.log.Log.*:partition:sum}.
+ */
+public class RollupRule {
+
+    private final String rule;
+    private final GlobMatcher names;
+    private final Set<String> droppedAttributes;
+    private final Aggregation aggregation;
+
+    private RollupRule(String rule, GlobMatcher names, Set<String> droppedAttributes, Aggregation aggregation) {
+        this.rule = rule;
+        this.names = names;
+        this.droppedAttributes = droppedAttributes;
+        this.aggregation = aggregation;
+    }
+
+    public static RollupRule parse(String rule) {
+        String[] parts = rule.split(":");
+        if (parts.length != 3 || parts[0].isBlank() || parts[1].isBlank()) {
+            throw new ConfigException(String.format("Invalid roll-up rule '%s', expected <instrument>:<attribute>[|<attribute>...]:<sum|max|min>", rule));
+        }
+        Aggregation aggregation;
+        switch (parts[2].trim().toLowerCase(Locale.ROOT)) {
+            case "sum":
+                aggregation = Aggregation.SUM;
+                break;
+            case "max":
+                aggregation = Aggregation.MAX;
+                break;
+            case "min":
+                aggregation = Aggregation.MIN;
+                break;
+            default:
+                throw new ConfigException(String.format("Invalid aggregation '%s' of roll-up rule '%s', expected sum, max or min", parts[2], rule));
+        }
+        Set<String> droppedAttributes = new HashSet<>();
+        for (String attribute : parts[1].trim().split("\\s*\\|\\s*")) {
+            if (attribute.isEmpty() || !droppedAttributes.add(attribute)) {
+                throw new ConfigException(String.format("Invalid attribute '%s' of roll-up rule '%s', expected distinct attribute names", attribute, rule));
+            }
+        }
+        return new RollupRule(rule, new GlobMatcher(List.of(parts[0].trim())), Set.copyOf(droppedAttributes), aggregation);
+    }
+
+    public static List<RollupRule> parseAll(List<String> rules) {
+        List<RollupRule> parsed = new ArrayList<>(rules.size());
+        for (String rule : rules) {
+            parsed.add(parse(rule));
+        }
+        return parsed;
+    }
+
+    boolean matches(String instrumentName) {
+        return names.matches(instrumentName);
+    }
+
+    Aggregation getAggregation() {
+        return aggregation;
+    }
+
+    Attributes apply(Attributes attributes) {
+        return attributes.toBuilder().removeIf(key -> droppedAttributes.contains(key.getKey())).build();
+    }
+
+    @Override
+    public String toString() {
+        return rule;
+    }
+}
@@ -0,0 +1,349 @@
+package net.uweeisele.kafka.metrics.reporter.otel.internal.instrument;
+
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.ObservableDoubleMeasurement;
+import io.opentelemetry.api.metrics.ObservableLongMeasurement;
+import io.opentelemetry.instrumentation.api.internal.GuardedBy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * A single attribute set of an {@link Instrument} together with the metrics recorded under it.
+ * <p>
+ * Usually, a series has exactly one member. Several members are combined according to the {@link Aggregation} of the
+ * series, e.g. all metrics beyond the cardinality limit of an instrument, which share its overflow series. Members are
+ * only added and removed by their {@link Instrument}, which guards the modifications. The array of members is replaced
+ * on every modification, so that observing never locks.
+ * <p>
+ * Summed counters stay monotonic: the last value of a removed member is kept as offset.
+ * <p>
+ * With an {@link IdlePolicy}, the series tracks how long its value has not changed. Unchanged values are suppressed
+ * and a series which has been idle for longer than the TTL expires: it is no longer observed until the idle monitor
+ * sees its value change or a new member joins it.
+ */
+class Series {
+
+    private static final Logger log = LoggerFactory.getLogger(Series.class);
+
+    private static final Member[] NO_MEMBERS = new Member[0];
+
+    private final Instrument instrument;
+    private final Attributes attributes;
+    private final Aggregation aggregation;
+    private final boolean monotonic;
+    private final IdlePolicy idlePolicy;
+
+    private volatile Member[] members = NO_MEMBERS;
+    private volatile double doubleOffset = 0.0;
+    private volatile long longOffset = 0L;
+
+    // Change tracking of the idle policy. Observed values are raw long bits, so that doubles and longs compare alike.
+    private volatile boolean tracked = false;
+    private volatile long lastBits;
+    private volatile long lastChange = System.nanoTime();
+    private volatile int unchangedCycles = 0;
+    private volatile boolean expired = false;
+
+    // The encoded sample name and labels, see OpenMetricsWriter.
+    private volatile byte[] openMetricsPrefix;
+
+    @GuardedBy("this")
+    private AutoCloseable observable;
+    @GuardedBy("this")
+    private boolean closed = false;
+
+    /**
+     * @param idlePolicy the policy for unchanged and idle values, or {@code null} to always record the value.
+     */
+    Series(Instrument instrument, Attributes attributes, Aggregation aggregation, boolean monotonic, IdlePolicy idlePolicy) {
+        this.instrument = instrument;
+        this.attributes = attributes;
+        this.aggregation = aggregation;
+        this.monotonic = monotonic;
+        this.idlePolicy = idlePolicy;
+    }
+
+    static Member ofDoubles(DoubleSupplier value) {
+        return new Member(value, null);
+    }
+
+    static Member ofLongs(LongSupplier value) {
+        return new Member(null, value);
+    }
+
+    Attributes getAttributes() {
+        return attributes;
+    }
+
+    Instrument getInstrument() {
+        return instrument;
+    }
+
+    void add(Member member) {
+        Member[] current = members;
+        Member[] modified = Arrays.copyOf(current, current.length + 1);
+        modified[current.length] = member;
+        members = modified;
+        resetIdleState();
+    }
+
+    /**
+     * @return {@code true} if the removed member was the last one.
+     */
+    boolean remove(Member member) {
+        Member[] current = members;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == member) {
+                Member[] modified = new Member[current.length - 1];
+                System.arraycopy(current, 0, modified, 0, i);
+                System.arraycopy(current, i + 1, modified, i, current.length - i - 1);
+                if (monotonic && aggregation == Aggregation.SUM) {
+                    keepAsOffset(member);
+                }
+                members = modified;
+                break;
+            }
+        }
+        return members.length == 0;
+    }
+
+    int size() {
+        return members.length;
+    }
+
+    void observe(ObservableDoubleMeasurement measurement) {
+        Member[] current = members;
+        if (current.length == 0 || expired) {
+            return;
+        }
+        double value = doubleValue(current);
+        if (idlePolicy == null || track(Double.doubleToLongBits(value))) {
+            measurement.record(value, attributes);
+        }
+    }
+
+    void observe(ObservableLongMeasurement measurement) {
+        Member[] current = members;
+        if (current.length == 0 || expired) {
+            return;
+        }
+        long value = longValue(current);
+        if (idlePolicy == null || track(value)) {
+            measurement.record(value, attributes);
+        }
+    }
+
+    /**
+     * Reads the current value, without tracking it for the idle policy.
+     */
+    double readDouble() {
+        Member[] current = members;
+        return current.length > 0 ? doubleValue(current) : Double.NaN;
+    }
+
+    /**
+     * Reads the current value, without tracking it for the idle policy.
+     */
+    long readLong() {
+        Member[] current = members;
+        return current.length > 0 ? longValue(current) : 0L;
+    }
+
+    byte[] getOpenMetricsPrefix() {
+        return openMetricsPrefix;
+    }
+
+    void setOpenMetricsPrefix(byte[] openMetricsPrefix) {
+        this.openMetricsPrefix = openMetricsPrefix;
+    }
+
+    private double doubleValue(Member[] current) {
+        if (current.length == 1 || aggregation == Aggregation.LAST) {
+            return current[current.length - 1].doubleValue.getAsDouble() + doubleOffset;
+        }
+        double value = aggregation == Aggregation.SUM ? doubleOffset : Double.NaN;
+        for (Member member : current) {
+            double memberValue;
+            try {
+                memberValue = member.doubleValue.getAsDouble();
+            } catch (RuntimeException e) {
+                log.debug("Error occurred observing a member of series {}", attributes, e);
+                continue;
+            }
+            value = aggregate(value, memberValue);
+        }
+        return value;
+    }
+
+    private long longValue(Member[] current) {
+        if (current.length == 1 || aggregation == Aggregation.LAST) {
+            return current[current.length - 1].longValue.getAsLong() + longOffset;
+        }
+        long value = aggregation == Aggregation.SUM ? longOffset : (aggregation == Aggregation.MAX ? Long.MIN_VALUE : Long.MAX_VALUE);
+        for (Member member : current) {
+            long memberValue;
+            try {
+                memberValue = member.longValue.getAsLong();
+            } catch (RuntimeException e) {
+                log.debug("Error occurred observing a member of series {}", attributes, e);
+                continue;
+            }
+            switch (aggregation) {
+                case SUM:
+                    value += memberValue;
+                    break;
+                case MAX:
+                    value = Math.max(value, memberValue);
+                    break;
+                default:
+                    value = Math.min(value, memberValue);
+            }
+        }
+        return value;
+    }
+
+    private double aggregate(double value, double memberValue) {
+        if (Double.isNaN(memberValue)) {
+            return value;
+        }
+        switch (aggregation) {
+            case SUM:
+                return value + memberValue;
+            case MAX:
+                return Double.isNaN(value) ? memberValue : Math.max(value, memberValue);
+            default:
+                return Double.isNaN(value) ? memberValue : Math.min(value, memberValue);
+        }
+    }
+
+    /**
+     * @return whether the observed value has to be recorded.
+     */
+    private boolean track(long bits) {
+        long now = System.nanoTime();
+        if (!tracked || bits != lastBits) {
+            lastBits = bits;
+            tracked = true;
+            lastChange = now;
+            unchangedCycles = 0;
+            return true;
+        }
+        unchangedCycles++;
+        if (idlePolicy.isExpired(now - lastChange)) {
+            expired = true;
+            idlePolicy.expired(this);
+            return false;
+        }
+        return idlePolicy.shouldRecord(unchangedCycles);
+    }
+
+    private void resetIdleState() {
+        tracked = false;
+        lastChange = System.nanoTime();
+        unchangedCycles = 0;
+        expired = false;
+    }
+
+    boolean isExpired() {
+        return expired;
+    }
+
+    /**
+     * Reads the value of an expired series again.
+     *
+     * @return {@code true} if it differs from the last observed value.
+     */
+    boolean hasChanged() {
+        Member[] current = members;
+        if (current.length == 0) {
+            return false;
+        }
+        long bits = current[0].doubleValue != null ? Double.doubleToLongBits(doubleValue(current)) : longValue(current);
+        return bits != lastBits;
+    }
+
+    /**
+     * Makes an expired series observed again.
+     */
+    void revive() {
+        resetIdleState();
+        instrument.resume(this);
+    }
+
+    /**
+     * Closes the observable of an expired series, which can be registered again by {@link #observeWith(Instrument)}.
+     */
+    void suspend() {
+        AutoCloseable suspendedObservable;
+        synchronized (this) {
+            if (!expired) {
+                return;
+            }
+            suspendedObservable = observable;
+            observable = null;
+        }
+        if (suspendedObservable != null) {
+            Instrument.closeObservable(suspendedObservable);
+        }
+    }
+
+    private void keepAsOffset(Member member) {
+        try {
+            if (member.doubleValue != null) {
+                double value = member.doubleValue.getAsDouble();
+                if (!Double.isNaN(value)) {
+                    doubleOffset += value;
+                }
+            } else {
+                longOffset += member.longValue.getAsLong();
+            }
+        } catch (RuntimeException e) {
+            log.debug("Error occurred reading the last value of a removed member of series {}", attributes, e);
+        }
+    }
+
+    /**
+     * Registers the observable of this series, unless it has already been registered or closed.
+     */
+    synchronized void observeWith(Instrument instrument) {
+        if (!closed && observable == null) {
+            observable = instrument.observe(this);
+        }
+    }
+
+    synchronized boolean isClosed() {
+        return closed;
+    }
+
+    void close() {
+        AutoCloseable closedObservable;
+        synchronized (this) {
+            closed = true;
+            closedObservable = observable;
+            observable = null;
+        }
+        if (closedObservable != null) {
+            Instrument.closeObservable(closedObservable);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return attributes.toString();
+    }
+
+    static final class Member {
+
+        private final DoubleSupplier doubleValue;
+        private final LongSupplier longValue;
+
+        private Member(DoubleSupplier doubleValue, LongSupplier longValue) {
+            this.doubleValue = doubleValue;
+            this.longValue = longValue;
+        }
+    }
+}
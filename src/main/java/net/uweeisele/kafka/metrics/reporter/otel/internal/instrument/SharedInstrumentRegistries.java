@@ -0,0 +1,76 @@
+package net.uweeisele.kafka.metrics.reporter.otel.internal.instrument;
+
+import io.opentelemetry.api.metrics.Meter;
+import io.opentelemetry.instrumentation.api.internal.GuardedBy;
+import net.uweeisele.kafka.metrics.reporter.otel.OtelMetricsReporterConfig;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds the instrument registries which are shared by all reporters in the JVM.
+ * <p>
+ * Reporters share a registry if they use the same meter, i.e. the same OpenTelemetry instance and meter name, and the
+ * same instrument settings. Every client then adds its series, which differ by their client attributes, to the same
+ * instruments, instead of registering instruments of its own. With batched callbacks, the SDK keeps one callback per
+ * instrument name, no matter how many clients there are.
+ * <p>
+ * Each reporter holds a reference, see {@link InstrumentRegistry#close()}. A registry is removed as soon as its last
+ * reference has been released, so that neither it nor its meter are retained once all of its reporters are closed.
+ */
+final class SharedInstrumentRegistries {
+
+    @GuardedBy("SharedInstrumentRegistries.class")
+    private static final Map<Key, InstrumentRegistry> REGISTRIES = new HashMap<>();
+
+    private SharedInstrumentRegistries() {
+    }
+
+    static synchronized InstrumentRegistry acquire(Meter meter, OtelMetricsReporterConfig config) {
+        Key key = new Key(meter, config);
+        InstrumentRegistry registry = REGISTRIES.get(key);
+        if (registry != null && registry.retain()) {
+            return registry;
+        }
+        InstrumentRegistry newRegistry = InstrumentRegistry.newRegistry(meter, config);
+        newRegistry.onReleased(() -> release(key, newRegistry));
+        REGISTRIES.put(key, newRegistry);
+        return newRegistry;
+    }
+
+    private static synchronized void release(Key key, InstrumentRegistry registry) {
+        // A new registry may already have replaced the released one.
+        REGISTRIES.remove(key, registry);
+    }
+
+    static synchronized boolean contains(InstrumentRegistry registry) {
+        return REGISTRIES.containsValue(registry);
+    }
+
+    private static final class Key {
+
+        private final Meter meter;
+        private final List<Object> settings;
+
+        private Key(Meter meter, OtelMetricsReporterConfig config) {
+            this.meter = meter;
+            this.settings = List.of(config.batchCallbacksEnabled(), config.cardinalityLimit(), config.rollupRules(), config.selfMetricsEnabled(),
+                    config.collectionMinRefreshInterval(), config.collectionBudget(), config.collectionSlowRead(),
+                    config.suppressUnchangedCycles(), config.suppressHeartbeatCycles(), config.idleTtl());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key that = (Key) o;
+            return meter == that.meter && settings.equals(that.settings);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(meter) + settings.hashCode();
+        }
+    }
+}
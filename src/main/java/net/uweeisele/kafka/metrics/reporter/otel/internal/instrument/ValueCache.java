@@ -0,0 +1,52 @@
+package net.uweeisele.kafka.metrics.reporter.otel.internal.instrument;
+
+import net.uweeisele.kafka.metrics.reporter.otel.OtelMetricsReporterConfig;
+
+import java.time.Duration;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Keeps the last reading of every metric value, see {@link CachedValue}.
+ * <p>
+ * With a minimum refresh interval, a value is read at most once per interval. All metric readers of the SDK, e.g. a
+ * Prometheus exporter and a periodic OTLP reader, as well as concurrent or back-to-back collections share the same
+ * reading, instead of evaluating the windowed stats of Kafka or the snapshots of Yammer again.
+ * With a {@link CollectionBudget}, slow values serve their last reading and are refreshed asynchronously.
+ */
+class ValueCache implements AutoCloseable {
+
+    private final long minRefreshNanos;
+    private final CollectionBudget budget;
+
+    ValueCache(Duration minRefreshInterval, CollectionBudget budget) {
+        this.minRefreshNanos = minRefreshInterval.toNanos();
+        this.budget = budget;
+    }
+
+    /**
+     * @return {@code null} if neither a minimum refresh interval nor a collection budget are configured.
+     */
+    static ValueCache create(OtelMetricsReporterConfig config) {
+        if (config.collectionMinRefreshInterval().isZero() && config.collectionBudget().isZero()) {
+            return null;
+        }
+        return new ValueCache(config.collectionMinRefreshInterval(),
+                config.collectionBudget().isZero() ? null : new CollectionBudget(config.collectionBudget(), config.collectionSlowRead()));
+    }
+
+    DoubleSupplier wrap(DoubleSupplier value) {
+        return new CachedValue(minRefreshNanos, budget, value, null);
+    }
+
+    LongSupplier wrap(LongSupplier value) {
+        return new CachedValue(minRefreshNanos, budget, null, value);
+    }
+
+    @Override
+    public void close() {
+        if (budget != null) {
+            budget.close();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package net.uweeisele.kafka.metrics.reporter.otel.internal.jfr;
+
+import io.opentelemetry.api.metrics.Meter;
+import io.opentelemetry.instrumentation.api.internal.GuardedBy;
+import net.uweeisele.kafka.metrics.reporter.otel.OtelMetricsReporterConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Starts the JVM runtime telemetry based on JFR event streaming, which is shared by all reporters in the JVM.
+ * <p>
+ * JFR event streaming requires Java 17, while the reporter runs on Java 11. The implementation is therefore only part
+ * of the Java 17 version of the multi-release jar and loaded by name. On older Java versions, the runtime telemetry is
+ * not available and a warning is logged.
+ * <p>
+ * The telemetry is started by the first reporter which acquires it, and stopped once all of them have released it.
+ * The settings and the meter of the first reporter apply.
+ */
+public final class RuntimeTelemetry {
+
+    private static final Logger log = LoggerFactory.getLogger(RuntimeTelemetry.class);
+
+    static final String IMPLEMENTATION = "net.uweeisele.kafka.metrics.reporter.otel.internal.jfr.JfrRuntimeTelemetry";
+
+    @GuardedBy("RuntimeTelemetry.class")
+    private static AutoCloseable telemetry;
+    @GuardedBy("RuntimeTelemetry.class")
+    private static int references;
+
+    private RuntimeTelemetry() {
+    }
+
+    /**
+     * @return a handle which releases the runtime telemetry again, or {@code null} if it is disabled or not available.
+     */
+    public static synchronized AutoCloseable acquire(Meter meter, OtelMetricsReporterConfig config) {
+        if (!config.jfrEnabled()) {
+            return null;
+        }
+        if (telemetry == null) {
+            telemetry = start(meter, config);
+            if (telemetry == null) {
+                return null;
+            }
+        }
+        references++;
+        return new Handle();
+    }
+
+    private static AutoCloseable start(Meter meter, OtelMetricsReporterConfig config) {
+        try {
+            return Class.forName(IMPLEMENTATION)
+                    .asSubclass(AutoCloseable.class)
+                    .getConstructor(Meter.class, OtelMetricsReporterConfig.class)
+                    .newInstance(meter, config);
+        } catch (ClassNotFoundException | LinkageError e) {
+            log.warn("JFR runtime telemetry requires Java 17, it is not available on Java {}", Runtime.version().feature());
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.warn("Failed to start JFR runtime telemetry", e);
+        }
+        return null;
+    }
+
+    private static synchronized void release() {
+        if (--references == 0) {
+            try {
+                telemetry.close();
+            } catch (Exception e) {
+                log.warn("Error occurred closing JFR runtime telemetry", e);
+            }
+            telemetry = null;
+        }
+    }
+
+    private static final class Handle implements AutoCloseable {
+
+        private boolean released;
+
+        @Override
+        public synchronized void close() {
+            if (!released) {
+                released = true;
+                release();
+            }
+        }
+    }
+}
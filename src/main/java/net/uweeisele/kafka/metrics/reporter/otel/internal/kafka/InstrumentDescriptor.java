@@ -2,15 +2,20 @@ package net.uweeisele.kafka.metrics.reporter.otel.internal.kafka;
 
 import io.opentelemetry.api.common.Attributes;
 import io.opentelemetry.api.common.AttributesBuilder;
+import net.uweeisele.kafka.metrics.reporter.otel.internal.AttributeInterner;
 import net.uweeisele.kafka.metrics.reporter.otel.internal.Context;
 import org.apache.kafka.common.MetricName;
 
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.regex.Pattern;
+
+import static java.util.stream.Collectors.toList;
 
 class InstrumentDescriptor {
 
@@ -18,13 +23,10 @@ class InstrumentDescriptor {
     private final Attributes attributes;
     private final String description;
 
-    private final Function<String, String> nameManipulator;
-
-    InstrumentDescriptor(String name, Attributes attributes, String description, Function<String, String> nameManipulator) {
+    InstrumentDescriptor(String name, Attributes attributes, String description) {
         this.name = name;
         this.attributes = attributes;
         this.description = description;
-        this.nameManipulator = nameManipulator;
     }
 
     String getName() {
@@ -43,13 +45,6 @@ class InstrumentDescriptor {
         return builder.apply(this);
     }
 
-    InstrumentDescriptor withSuffix(String suffix) {
-        if (suffix == null || suffix.isBlank()) {
-            return this;
-        }
-        return new InstrumentDescriptor(String.format("%s.%s", getName().replaceAll("([-_.])?" + "(?i)" + suffix, ""), nameManipulator.apply(suffix)), getAttributes(), description, nameManipulator);
-    }
-
     @Override
     public String toString() {
         return String.format("%s%s", getName(), getAttributes());
@@ -72,60 +67,143 @@ class InstrumentDescriptor {
         return new Builder(context);
     }
 
+    /**
+     * Translates Kafka metric names into instrument names.
+     * <p>
+     * All patterns are compiled once per builder and the translated name is memoized per
+     * {@link NameTemplate}, because Kafka registers the same (group, name, stat type) combination
+     * for every partition, client or node, which differ only in their tags.
+     */
     static class Builder {
 
+        private static final Pattern NAMESPACE_SEPARATOR = Pattern.compile("[.-_]");
+        private static final List<Pattern> NAME_PARTS_TO_REMOVE = compileRemovals(List.of("-total", "-count"));
+        private static final Pattern AUTHENTICATION = Pattern.compile("(?i)Authentication");
+
         private final Context context;
+        private final List<Pattern> groupPartsToRemove;
+
+        private final Map<String, Pattern> suffixPatterns = new ConcurrentHashMap<>();
+        private final Map<NameTemplate, String> names = new ConcurrentHashMap<>();
 
         private Function<String, String> nameManipulator = Function.identity();
 
         Builder(Context context) {
             this.context = context;
+            List<String> partsToRemoveFromGroup = Arrays.stream(NAMESPACE_SEPARATOR.split(context.getNamespace()))
+                    .map(s -> String.format("(-)?%s(-)?", s))
+                    .collect(toList());
+            partsToRemoveFromGroup.add("(-)?metrics(-)?");
+            this.groupPartsToRemove = compileRemovals(partsToRemoveFromGroup);
         }
 
         InstrumentDescriptor.Builder withNameManipulator(Function<String, String> nameManipulator) {
             this.nameManipulator = nameManipulator;
+            this.names.clear();
             return this;
         }
 
+        /**
+         * @return a builder for the new context with the same name manipulator. The translated names are kept if the
+         *         namespace, which is part of every name, has not changed.
+         */
+        InstrumentDescriptor.Builder withContext(Context newContext) {
+            Builder builder = new Builder(newContext);
+            builder.nameManipulator = nameManipulator;
+            if (newContext.getNamespace().equals(context.getNamespace())) {
+                builder.names.putAll(names);
+            }
+            return builder;
+        }
+
+        Context getContext() {
+            return context;
+        }
+
         InstrumentDescriptor build(MetricName name) {
-            return new InstrumentDescriptor(buildName(name), Attributes.builder().putAll(context.getAttributes()).putAll(buildAttributes(name)).build(), name.description(), nameManipulator);
+            return build(name, null);
         }
 
-        private String buildName(MetricName name) {
-            String[] namespaceParts = context.getNamespace().split("[.-_]");
-            List<String> partsToRemoveFromGroup = Arrays.stream(namespaceParts).map(s -> String.format("(-)?%s(-)?", s)).collect(Collectors.toList());
-            partsToRemoveFromGroup.add("(-)?metrics(-)?");
-            String normalizedGroup = removeParts(name.group(), partsToRemoveFromGroup);
-            String normalizedName = removeParts(name.name(), "-total", "-count").replaceAll("(?i)Authentication", "Auth");
+        InstrumentDescriptor build(MetricName name, String statType) {
+            return new InstrumentDescriptor(
+                    names.computeIfAbsent(new NameTemplate(name.group(), name.name(), statType), this::buildName),
+                    buildAttributes(name),
+                    name.description());
+        }
+
+        private String buildName(NameTemplate template) {
+            String normalizedGroup = removeParts(template.group, groupPartsToRemove);
+            String normalizedName = AUTHENTICATION.matcher(removeParts(template.name, NAME_PARTS_TO_REMOVE)).replaceAll("Auth");
+            String name;
             if (normalizedGroup.isBlank()) {
-                return context.getNamespace()
+                name = context.getNamespace()
                         + "." + nameManipulator.apply(normalizedName);
             } else {
-                return context.getNamespace()
+                name = context.getNamespace()
                         + "." + nameManipulator.apply(normalizedGroup)
                         + "." + nameManipulator.apply(normalizedName);
             }
+            return withSuffix(name, template.statType);
+        }
+
+        private String withSuffix(String name, String suffix) {
+            if (suffix == null || suffix.isBlank()) {
+                return name;
+            }
+            Pattern suffixPattern = suffixPatterns.computeIfAbsent(suffix, s -> Pattern.compile("([-_.])?" + "(?i)" + s));
+            return String.format("%s.%s", suffixPattern.matcher(name).replaceAll(""), nameManipulator.apply(suffix));
         }
 
         private Attributes buildAttributes(MetricName name) {
-            AttributesBuilder builder = Attributes.builder();
-            name.tags().entrySet().stream()
-                    .filter(e -> !e.getKey().matches("(?i)BrokerId"))
-                    .forEach(e -> builder.put(e.getKey(), e.getValue()));
-            return builder.build();
+            AttributesBuilder builder = Attributes.builder().putAll(context.getAttributes());
+            for (Map.Entry<String, String> tag : name.tags().entrySet()) {
+                if (!tag.getKey().equalsIgnoreCase("BrokerId")) {
+                    AttributeInterner.put(builder, tag.getKey(), tag.getValue());
+                }
+            }
+            return AttributeInterner.attributes(builder.build());
         }
 
-        private String removeParts(String value, String... parts) {
-            return removeParts(value, List.of(parts));
+        private static String removeParts(String value, List<Pattern> parts) {
+            for (Pattern part : parts) {
+                value = part.matcher(value).replaceAll("");
+            }
+            return value;
         }
 
-        private String removeParts(String value, Collection<String> parts) {
+        private static List<Pattern> compileRemovals(List<String> parts) {
+            List<Pattern> patterns = new ArrayList<>(parts.size());
             for (String part : parts) {
-                value = value.replaceAll("(?i)" + part, "");
+                patterns.add(Pattern.compile("(?i)" + part));
             }
-            return value;
+            return patterns;
+        }
+    }
+
+    private static final class NameTemplate {
+
+        private final String group;
+        private final String name;
+        private final String statType;
+
+        private NameTemplate(String group, String name, String statType) {
+            this.group = group;
+            this.name = name;
+            this.statType = statType;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof NameTemplate)) return false;
+            NameTemplate that = (NameTemplate) o;
+            return group.equals(that.group) && name.equals(that.name) && Objects.equals(statType, that.statType);
         }
 
+        @Override
+        public int hashCode() {
+            return Objects.hash(group, name, statType);
+        }
     }
 
 }
@@ -4,9 +4,15 @@
 package net.uweeisele.kafka.metrics.reporter.otel.internal.kafka;
 
 import io.opentelemetry.api.metrics.Meter;
-import io.opentelemetry.instrumentation.api.internal.GuardedBy;
+import net.uweeisele.kafka.metrics.reporter.otel.OtelMetricsReporterConfig;
+import net.uweeisele.kafka.metrics.reporter.otel.internal.BulkRegistration;
 import net.uweeisele.kafka.metrics.reporter.otel.internal.CaseType;
 import net.uweeisele.kafka.metrics.reporter.otel.internal.Context;
+import net.uweeisele.kafka.metrics.reporter.otel.internal.LazyGaugeValue;
+import net.uweeisele.kafka.metrics.reporter.otel.internal.RegistrationExecutor;
+import net.uweeisele.kafka.metrics.reporter.otel.internal.SelfMetrics;
+import net.uweeisele.kafka.metrics.reporter.otel.internal.filter.MetricFilter;
+import net.uweeisele.kafka.metrics.reporter.otel.internal.instrument.InstrumentRegistry;
 import org.apache.kafka.common.MetricName;
 import org.apache.kafka.common.config.ConfigException;
 import org.apache.kafka.common.metrics.KafkaMetric;
@@ -18,27 +24,70 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
-import java.util.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 // see https://github.com/open-telemetry/opentelemetry-java-instrumentation/blob/main/instrumentation/kafka/kafka-clients/kafka-clients-common/library/src/main/java/io/opentelemetry/instrumentation/kafka/internal/OpenTelemetryMetricsReporter.java
 public class OtelKafkaMetricsReporter implements MetricsReporter {
 
     private static final Logger log = LoggerFactory.getLogger(OtelKafkaMetricsReporter.class);
 
-    private final Meter meter;
-    private final InstrumentDescriptor.Builder descriptorBuilder;
+    private static final ClassValue<String> STAT_TYPES = new ClassValue<>() {
+        @Override
+        protected String computeValue(Class<?> type) {
+            String simpleName = type.getSimpleName();
+            if (simpleName.isEmpty() || simpleName.contains("$")) {
+                return "";
+            }
+            return simpleName.replace("Cumulative", "");
+        }
+    };
 
-    private final Object lock = new Object();
-    @GuardedBy("lock")
-    private final Map<MetricName, AutoCloseable> registeredObservables = new HashMap<>();
+    private final InstrumentRegistry instruments;
+    private volatile InstrumentDescriptor.Builder descriptorBuilder;
+    private final RegistrationExecutor registrations;
+    private volatile MetricFilter filter;
+    private final SelfMetrics selfMetrics;
+    private final boolean lazyRegistration;
+    private final int bulkParallelism;
+
+    // All known metrics, including excluded ones, so that the filter can be applied again on reconfiguration.
+    private final ConcurrentMap<MetricName, KafkaMetric> metrics = new ConcurrentHashMap<>();
+    // Replaced and removed observables are closed outside of the map, so that closing them never blocks other callers.
+    private final ConcurrentMap<MetricName, AutoCloseable> registeredObservables = new ConcurrentHashMap<>();
 
     public OtelKafkaMetricsReporter(Meter meter, Context context) {
-        this(meter, InstrumentDescriptor.builder(context).withNameManipulator(CaseType.CAMEL_CASE.getManipulator().andThen(CaseType.FIRST_UPPER_CASE.getManipulator())));
+        this(meter, context, new OtelMetricsReporterConfig(Map.of()));
+    }
+
+    public OtelKafkaMetricsReporter(Meter meter, Context context, OtelMetricsReporterConfig config) {
+        this(meter, context, config, SelfMetrics.DISABLED);
+    }
+
+    public OtelKafkaMetricsReporter(Meter meter, Context context, OtelMetricsReporterConfig config, SelfMetrics selfMetrics) {
+        this(InstrumentRegistry.create(meter, config),
+                InstrumentDescriptor.builder(context).withNameManipulator(CaseType.CAMEL_CASE.getManipulator().andThen(CaseType.FIRST_UPPER_CASE.getManipulator())),
+                RegistrationExecutor.create("kafka", config),
+                MetricFilter.create(config),
+                selfMetrics,
+                config.lazyRegistrationEnabled(),
+                config.bulkRegistrationParallelism());
     }
 
-    OtelKafkaMetricsReporter(Meter meter, InstrumentDescriptor.Builder descriptorBuilder) {
-        this.meter = meter;
+    OtelKafkaMetricsReporter(InstrumentRegistry instruments, InstrumentDescriptor.Builder descriptorBuilder, RegistrationExecutor registrations,
+                             MetricFilter filter, SelfMetrics selfMetrics, boolean lazyRegistration, int bulkParallelism) {
+        this.instruments = instruments;
         this.descriptorBuilder = descriptorBuilder;
+        this.registrations = registrations;
+        this.filter = filter;
+        this.selfMetrics = selfMetrics;
+        this.lazyRegistration = lazyRegistration;
+        this.bulkParallelism = bulkParallelism;
+        selfMetrics.observe(instruments, registrations, registeredObservables::size);
     }
 
     @Override
@@ -48,82 +97,219 @@ public class OtelKafkaMetricsReporter implements MetricsReporter {
 
     @Override
     public void contextChange(MetricsContext metricsContext) {
+        contextChange(new Context().setMetricsContext(metricsContext));
+    }
 
+    /**
+     * Moves all registered metrics to the attributes, and if the namespace has changed the names, of the new context.
+     * <p>
+     * The registry is kept. Every metric registers its series under the new attributes before its previous series are
+     * removed, so the instruments stay alive and no metric is missing in between.
+     */
+    public void contextChange(Context context) {
+        InstrumentDescriptor.Builder previousBuilder = descriptorBuilder;
+        if (previousBuilder.getContext().equals(context)) {
+            return;
+        }
+        log.info("Changing context of Kafka metrics from {} to {}", previousBuilder.getContext(), context);
+        descriptorBuilder = previousBuilder.withContext(context);
+        selfMetrics.contextChange(context);
+        for (MetricName name : registeredObservables.keySet()) {
+            // Submitted as removal, so that it is never dropped, because it may supersede a pending removal.
+            registrations.execute(name, () -> rekeyMetric(name), true);
+        }
     }
 
+    /**
+     * Adds all existing metrics in bulk, see {@link BulkRegistration}. With asynchronous registration, they are just
+     * queued like any other change.
+     */
     @Override
     public void init(List<KafkaMetric> metrics) {
-        metrics.forEach(this::metricChange);
+        if (registrations != RegistrationExecutor.DIRECT) {
+            metrics.forEach(this::metricChange);
+            return;
+        }
+        List<KafkaMetric> included = new ArrayList<>(metrics.size());
+        for (KafkaMetric metric : metrics) {
+            this.metrics.put(metric.metricName(), metric);
+            if (isIncluded(metric.metricName())) {
+                included.add(metric);
+            }
+        }
+        BulkRegistration.forEach("kafka", included, bulkParallelism, this::addExistingMetric);
     }
 
     @Override
     public void metricChange(KafkaMetric metric) {
-        log.trace("Adding instruments for Kafka metrics: {}", metric.metricName());
-        InstrumentDescriptor descriptor = descriptorBuilder.build(metric.metricName());
-        AutoCloseable observable = null;
-        Measurable measurable = getMeasurable(metric);
-        if (measurable instanceof CumulativeSum) {
-            observable = descriptor.withSuffix(getStatType(measurable))
-                    .register(d -> meter
-                            .counterBuilder(d.getName())
-                            .ofDoubles()
-                            .setDescription(d.getDescription())
-                            .buildWithCallback(o -> o.record(toDouble(metric.metricValue()), d.getAttributes())));
-        } else if (metric.metricValue() instanceof Number) {
-            observable = descriptor.withSuffix(getStatType(measurable))
-                    .register(d -> meter
-                            .gaugeBuilder(d.getName())
-                            .setDescription(d.getDescription())
-                            .buildWithCallback(o -> o.record(toDouble(metric.metricValue()), d.getAttributes())));
+        long start = selfMetrics.start();
+        // Published before the filter is read, so that a concurrent reconfiguration either sees the metric or is seen.
+        metrics.put(metric.metricName(), metric);
+        if (isIncluded(metric.metricName())) {
+            registrations.execute(metric.metricName(), () -> addMetric(metric), false);
+        } else {
+            log.trace("Skipping excluded Kafka metric: {}", metric.metricName());
         }
+        selfMetrics.recordAdd(start);
+    }
 
-        if (observable != null) {
-            synchronized (lock) {
-                AutoCloseable removedObservable = registeredObservables.put(metric.metricName(), observable);
+    @Override
+    public void metricRemoval(KafkaMetric metric) {
+        long start = selfMetrics.start();
+        // The metric may have been added under a different filter, so its instruments are always removed.
+        if (metrics.remove(metric.metricName()) != null) {
+            registrations.execute(metric.metricName(), () -> removeMetric(metric.metricName()), true);
+        }
+        selfMetrics.recordRemove(start);
+    }
+
+    public InstrumentRegistry getInstruments() {
+        return instruments;
+    }
+
+    @Override
+    public void close() {
+        selfMetrics.close();
+        registrations.close();
+        instruments.close(() -> {
+            for (MetricName name : registeredObservables.keySet()) {
+                AutoCloseable removedObservable = registeredObservables.remove(name);
                 if (removedObservable != null) {
-                    log.trace("Replacing instruments of Kafka metric: {}", metric.metricName());
                     closeObservable(removedObservable);
-                } else {
-                    log.trace("Adding instruments of Kafka metric: {}", metric.metricName());
                 }
             }
-        }
+        });
+        registeredObservables.clear();
+        metrics.clear();
     }
 
-    @Override
-    public void metricRemoval(KafkaMetric metric) {
-        synchronized (lock) {
-            AutoCloseable removedObservable = registeredObservables.remove(metric.metricName());
+    private boolean isIncluded(MetricName name) {
+        return isIncluded(filter, name);
+    }
+
+    private static boolean isIncluded(MetricFilter filter, MetricName name) {
+        return filter.test(name.group(), name.name(), name.tags());
+    }
+
+    private void addMetric(KafkaMetric metric) {
+        log.trace("Adding instruments for Kafka metrics: {}", metric.metricName());
+        Measurable measurable = getMeasurable(metric);
+        InstrumentDescriptor.Builder builder = descriptorBuilder;
+        InstrumentDescriptor descriptor = builder.build(metric.metricName(), getStatType(measurable));
+        AutoCloseable observable = null;
+        if (measurable instanceof CumulativeSum) {
+            observable = descriptor
+                    .register(d -> instruments
+                            .registerDoubleCounter(d.getName(), d.getDescription(), d.getAttributes(), () -> toDouble(metric.metricValue())));
+        } else if (measurable != null || (!lazyRegistration && metric.metricValue() instanceof Number)) {
+            // Measurables are always numeric, only gauges have to be read to find out.
+            observable = descriptor
+                    .register(d -> instruments
+                            .registerDoubleGauge(d.getName(), d.getDescription(), d.getAttributes(), () -> toDouble(metric.metricValue())));
+        } else if (lazyRegistration) {
+            MetricName name = metric.metricName();
+            LazyGaugeValue value = new LazyGaugeValue(name, metric::metricValue, () -> registrations.execute(name, () -> removeMetric(name), true));
+            observable = descriptor
+                    .register(d -> instruments
+                            .registerDoubleGauge(d.getName(), d.getDescription(), d.getAttributes(), value));
+        }
+
+        if (observable != null) {
+            AutoCloseable removedObservable = registeredObservables.put(metric.metricName(), observable);
             if (removedObservable != null) {
-                log.trace("Removing instruments of Kafka metric: {}", metric.metricName());
+                log.trace("Replacing instruments of Kafka metric: {}", metric.metricName());
                 closeObservable(removedObservable);
+            } else {
+                log.trace("Adding instruments of Kafka metric: {}", metric.metricName());
+            }
+            if (descriptorBuilder != builder) {
+                // The context has changed while registering, possibly after the context change has collected the
+                // metrics to re-key, so the metric has to be re-keyed here.
+                rekeyMetric(metric.metricName());
             }
         }
     }
 
-    @Override
-    public void close() {
-        synchronized (lock) {
-            for (Iterator<AutoCloseable> it = registeredObservables.values().iterator(); it.hasNext(); ) {
-                closeObservable(it.next());
-                it.remove();
+    /**
+     * Skips metrics which have been removed or replaced concurrently. A removal or replacement which happens while the
+     * instruments are registered finds nothing to remove yet, so the current state of the metric is applied afterwards.
+     */
+    private void addExistingMetric(KafkaMetric metric) {
+        if (metrics.get(metric.metricName()) == metric) {
+            addMetric(metric);
+            if (metrics.get(metric.metricName()) != metric) {
+                rekeyMetric(metric.metricName());
             }
         }
     }
 
+    /**
+     * Registers the metric again under the current context, or removes it if it has been removed or excluded meanwhile.
+     * The re-key may have superseded a pending addition or removal of the metric, so it has to apply either of them.
+     */
+    private void rekeyMetric(MetricName name) {
+        KafkaMetric metric = metrics.get(name);
+        if (metric != null && isIncluded(name)) {
+            addMetric(metric);
+        } else {
+            removeMetric(name);
+        }
+    }
+
+    private void removeMetric(MetricName name) {
+        AutoCloseable removedObservable = registeredObservables.remove(name);
+        if (removedObservable != null) {
+            log.trace("Removing instruments of Kafka metric: {}", name);
+            closeObservable(removedObservable);
+        }
+    }
+
     @Override
     public Set<String> reconfigurableConfigs() {
-        return MetricsReporter.super.reconfigurableConfigs();
+        return OtelMetricsReporterConfig.RECONFIGURABLE_CONFIGS;
     }
 
     @Override
     public void validateReconfiguration(Map<String, ?> configs) throws ConfigException {
-        MetricsReporter.super.validateReconfiguration(configs);
+        new OtelMetricsReporterConfig(configs);
     }
 
     @Override
     public void reconfigure(Map<String, ?> configs) {
-        MetricsReporter.super.reconfigure(configs);
+        reconfigure(MetricFilter.create(new OtelMetricsReporterConfig(configs)));
+    }
+
+    /**
+     * Applies a new filter to all known metrics. Only metrics whose decision has changed are added or removed.
+     */
+    public void reconfigure(MetricFilter newFilter) {
+        MetricFilter oldFilter = filter;
+        filter = newFilter;
+        int changed = 0;
+        for (Map.Entry<MetricName, KafkaMetric> entry : metrics.entrySet()) {
+            MetricName name = entry.getKey();
+            boolean included = isIncluded(newFilter, name);
+            if (included != isIncluded(oldFilter, name)) {
+                registrations.execute(name, () -> applyFilter(name), !included);
+                changed++;
+            }
+        }
+        log.info("Reconfigured metric filter of Kafka metrics, {} of {} metrics changed", changed, metrics.size());
+    }
+
+    /**
+     * Adds or removes the instruments of a metric according to the current filter. Runs as a registration change, so
+     * that it is ordered with all other changes of the metric.
+     */
+    private void applyFilter(MetricName name) {
+        KafkaMetric metric = metrics.get(name);
+        if (metric != null && isIncluded(name)) {
+            if (!registeredObservables.containsKey(name)) {
+                addMetric(metric);
+            }
+        } else {
+            removeMetric(name);
+        }
     }
 
     @Nullable
@@ -136,17 +322,17 @@ public class OtelKafkaMetricsReporter implements MetricsReporter {
     }
 
     private static String getStatType(Measurable measurable) {
-        if (measurable == null || measurable.getClass().getSimpleName().isEmpty() || measurable.getClass().getSimpleName().contains("$")) {
-            return "";
-        }
-        return measurable.getClass().getSimpleName().replace("Cumulative", "");
+        return measurable != null ? STAT_TYPES.get(measurable.getClass()) : "";
     }
 
-    private Double toDouble(Object value) {
+    /**
+     * {@link KafkaMetric} only exposes its value boxed, reading it is the one allocation left on the callback path.
+     */
+    private static double toDouble(Object value) {
         if (value instanceof Number) {
             return ((Number) value).doubleValue();
         }
-        return null;
+        return Double.NaN;
     }
 
     private void closeObservable(AutoCloseable observable) {
@@ -0,0 +1,58 @@
+package net.uweeisele.kafka.metrics.reporter.otel.internal.prometheus;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Writes into a list of fixed size buffers, which are taken from a pool and only allocated if the pool is empty.
+ */
+class BufferOutputStream extends OutputStream {
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Queue<ByteBuffer> pool;
+    private final List<ByteBuffer> buffers = new ArrayList<>();
+    private ByteBuffer current;
+
+    BufferOutputStream(Queue<ByteBuffer> pool) {
+        this.pool = pool;
+        this.current = nextBuffer();
+    }
+
+    List<ByteBuffer> buffers() {
+        return buffers;
+    }
+
+    @Override
+    public void write(int b) {
+        if (!current.hasRemaining()) {
+            current = nextBuffer();
+        }
+        current.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+        while (length > 0) {
+            if (!current.hasRemaining()) {
+                current = nextBuffer();
+            }
+            int chunk = Math.min(length, current.remaining());
+            current.put(bytes, offset, chunk);
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    private ByteBuffer nextBuffer() {
+        ByteBuffer buffer = pool.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        }
+        buffers.add(buffer);
+        return buffer;
+    }
+}
@@ -0,0 +1,243 @@
+package net.uweeisele.kafka.metrics.reporter.otel.internal.prometheus;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.opentelemetry.instrumentation.api.internal.GuardedBy;
+import net.uweeisele.kafka.metrics.reporter.otel.OtelMetricsReporterConfig;
+import net.uweeisele.kafka.metrics.reporter.otel.internal.instrument.InstrumentRegistry;
+import net.uweeisele.kafka.metrics.reporter.otel.internal.instrument.OpenMetricsWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves the instruments of the registered registries in the OpenMetrics text format over HTTP, based on the
+ * {@link HttpServer} of the JDK.
+ * <p>
+ * Scrapes read the registries directly, see {@link OpenMetricsWriter}, instead of the aggregated metrics of the SDK.
+ * The response is rendered into pooled buffers and shared by all scrapes which arrive within the render interval,
+ * including its gzip compressed form.
+ * <p>
+ * All reporters in the JVM share one endpoint, see {@link #acquire(OtelMetricsReporterConfig)}. It is started by the
+ * first reporter which acquires it, and stopped once all of them have released it. The address of the first reporter
+ * applies.
+ */
+public class PrometheusEndpoint implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(PrometheusEndpoint.class);
+
+    private static final int THREADS = 2;
+
+    @GuardedBy("PrometheusEndpoint.class")
+    private static PrometheusEndpoint shared;
+    @GuardedBy("PrometheusEndpoint.class")
+    private static int references;
+
+    private final InetSocketAddress address;
+    private final long renderIntervalNanos;
+    private final List<InstrumentRegistry> registries = new CopyOnWriteArrayList<>();
+    private final Queue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+
+    private final Object renderLock = new Object();
+    @GuardedBy("renderLock")
+    private final OpenMetricsWriter writer = new OpenMetricsWriter();
+    @GuardedBy("renderLock")
+    private Rendering current;
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * @param renderInterval the time during which scrapes share the same response.
+     */
+    public PrometheusEndpoint(InetSocketAddress address, Duration renderInterval) {
+        this.address = address;
+        this.renderIntervalNanos = renderInterval.toNanos();
+    }
+
+    /**
+     * @return the registrations of a reporter with the endpoint shared in the JVM, which release the endpoint again
+     * once closed, or {@code null} if it is disabled or cannot be started.
+     */
+    public static synchronized Registrations acquire(OtelMetricsReporterConfig config) {
+        if (!config.prometheusEnabled()) {
+            return null;
+        }
+        InetSocketAddress address = new InetSocketAddress(config.prometheusHost(), config.prometheusPort());
+        if (shared == null) {
+            PrometheusEndpoint endpoint = new PrometheusEndpoint(address, config.prometheusRenderInterval());
+            try {
+                endpoint.start();
+            } catch (IOException e) {
+                log.error("Failed to start Prometheus endpoint on {}", address, e);
+                return null;
+            }
+            shared = endpoint;
+        } else if (!shared.address.equals(address)) {
+            log.warn("Prometheus endpoint is already started on {}, ignoring address {}", shared.address, address);
+        }
+        references++;
+        return shared.new Registrations();
+    }
+
+    private static synchronized void release(PrometheusEndpoint endpoint) {
+        if (endpoint == shared && --references == 0) {
+            shared.close();
+            shared = null;
+        }
+    }
+
+    public synchronized void start() throws IOException {
+        AtomicInteger threads = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(THREADS, r -> {
+            Thread thread = new Thread(r, "otel-metrics-reporter-prometheus-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server = HttpServer.create(address, 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+        log.info("Started Prometheus endpoint on {}", server.getAddress());
+    }
+
+    public synchronized int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void register(InstrumentRegistry registry) {
+        registries.add(registry);
+    }
+
+    public void unregister(InstrumentRegistry registry) {
+        registries.remove(registry);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            Rendering rendering = acquireRendering();
+            try {
+                boolean gzip = acceptsGzip(exchange);
+                exchange.getResponseHeaders().set("Content-Type", OpenMetricsWriter.CONTENT_TYPE);
+                if (gzip) {
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                }
+                if ("HEAD".equals(exchange.getRequestMethod())) {
+                    exchange.sendResponseHeaders(200, -1);
+                    return;
+                }
+                byte[] gzipped = gzip ? rendering.gzipped() : null;
+                exchange.sendResponseHeaders(200, gzip ? gzipped.length : rendering.length());
+                try (OutputStream body = exchange.getResponseBody()) {
+                    if (gzip) {
+                        body.write(gzipped);
+                    } else {
+                        rendering.writeTo(body);
+                    }
+                }
+            } finally {
+                rendering.release();
+            }
+        } catch (IOException | RuntimeException e) {
+            log.debug("Error occurred serving scrape from {}", exchange.getRemoteAddress(), e);
+            throw e;
+        }
+    }
+
+    /**
+     * @return the current rendering, or a new one if it is older than the render interval. Must be released.
+     */
+    Rendering acquireRendering() throws IOException {
+        synchronized (renderLock) {
+            long now = System.nanoTime();
+            if (current == null || now - current.getRenderedAt() >= renderIntervalNanos) {
+                // Scrapes which still write the previous rendering keep its buffers until they are done.
+                if (current != null) {
+                    current.release();
+                    current = null;
+                }
+                BufferOutputStream out = new BufferOutputStream(pool);
+                // Reporters which share a registry register it once each.
+                writer.write(new LinkedHashSet<>(registries), out);
+                current = new Rendering(out.buffers(), now, pool);
+            }
+            current.retain();
+            return current;
+        }
+    }
+
+    private static boolean acceptsGzip(HttpExchange exchange) {
+        for (String encoding : exchange.getRequestHeaders().getOrDefault("Accept-Encoding", List.of())) {
+            if (encoding.contains("gzip")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The registries which one reporter has registered with the shared endpoint.
+     */
+    public final class Registrations implements AutoCloseable {
+
+        private final List<InstrumentRegistry> registered = new CopyOnWriteArrayList<>();
+        private boolean closed;
+
+        private Registrations() {
+        }
+
+        PrometheusEndpoint endpoint() {
+            return PrometheusEndpoint.this;
+        }
+
+        public synchronized void register(InstrumentRegistry registry) {
+            if (!closed) {
+                registered.add(registry);
+                PrometheusEndpoint.this.register(registry);
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                registered.forEach(PrometheusEndpoint.this::unregister);
+                registered.clear();
+                release(PrometheusEndpoint.this);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+        }
+        synchronized (renderLock) {
+            if (current != null) {
+                current.release();
+                current = null;
+            }
+        }
+        registries.clear();
+    }
+}
@@ -0,0 +1,82 @@
+package net.uweeisele.kafka.metrics.reporter.otel.internal.prometheus;
+
+import io.opentelemetry.instrumentation.api.internal.GuardedBy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * One rendered scrape response, shared by all scrapes within the render interval.
+ * <p>
+ * The rendering is reference counted: the endpoint holds one reference as long as the rendering is current, and every
+ * scrape holds one while it writes the response. The buffers go back to the pool once the last reference is released.
+ * The gzip compressed response is only created if a scrape asks for it, and then shared as well.
+ */
+class Rendering {
+
+    private final List<ByteBuffer> buffers;
+    private final int length;
+    private final long renderedAt;
+    private final Queue<ByteBuffer> pool;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    @GuardedBy("this")
+    private byte[] gzipped;
+
+    Rendering(List<ByteBuffer> buffers, long renderedAt, Queue<ByteBuffer> pool) {
+        this.buffers = buffers;
+        this.length = buffers.stream().mapToInt(ByteBuffer::position).sum();
+        this.renderedAt = renderedAt;
+        this.pool = pool;
+    }
+
+    long getRenderedAt() {
+        return renderedAt;
+    }
+
+    int length() {
+        return length;
+    }
+
+    /**
+     * Must only be called while the endpoint still holds its reference.
+     */
+    void retain() {
+        references.incrementAndGet();
+    }
+
+    void release() {
+        if (references.decrementAndGet() == 0) {
+            for (ByteBuffer buffer : buffers) {
+                buffer.clear();
+                pool.offer(buffer);
+            }
+        }
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        for (ByteBuffer buffer : buffers) {
+            out.write(buffer.array(), buffer.arrayOffset(), buffer.position());
+        }
+    }
+
+    synchronized byte[] gzipped() {
+        if (gzipped == null) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(1024, length / 8));
+            try (GZIPOutputStream out = new GZIPOutputStream(compressed, 8192)) {
+                writeTo(out);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            gzipped = compressed.toByteArray();
+        }
+        return gzipped;
+    }
+}
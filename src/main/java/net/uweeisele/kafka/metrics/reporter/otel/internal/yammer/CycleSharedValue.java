@@ -0,0 +1,48 @@
+package net.uweeisele.kafka.metrics.reporter.otel.internal.yammer;
+
+import io.opentelemetry.instrumentation.api.internal.GuardedBy;
+
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Shares one reading of an expensive value between all instruments derived from the same metric.
+ * <p>
+ * Every derived instrument is a consumer with a fixed index. The value is read once and handed to all consumers.
+ * It is read again as soon as a consumer asks for it a second time, which means that the next collection cycle has
+ * started. This way each collection cycle reads the value exactly once, without having to know when a cycle starts.
+ * <p>
+ * {@link #getAsDouble(int, ToDoubleFunction)} extracts the primitive value of a consumer while holding the lock,
+ * so that the reader may update and return the same mutable instance in every cycle.
+ *
+ * @param <T> the type of the shared value
+ */
+class CycleSharedValue<T> {
+
+    static final int MAX_CONSUMERS = Long.SIZE;
+
+    private final Supplier<T> reader;
+
+    @GuardedBy("this")
+    private T value;
+    @GuardedBy("this")
+    private long consumed;
+
+    CycleSharedValue(Supplier<T> reader) {
+        this.reader = reader;
+    }
+
+    synchronized double getAsDouble(int consumer, ToDoubleFunction<T> field) {
+        return field.applyAsDouble(get(consumer));
+    }
+
+    synchronized T get(int consumer) {
+        long consumerBit = 1L << consumer;
+        if (value == null || (consumed & consumerBit) != 0) {
+            value = reader.get();
+            consumed = 0;
+        }
+        consumed |= consumerBit;
+        return value;
+    }
+}
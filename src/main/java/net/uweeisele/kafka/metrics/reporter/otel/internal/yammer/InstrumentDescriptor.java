@@ -3,6 +3,7 @@ package net.uweeisele.kafka.metrics.reporter.otel.internal.yammer;
 import com.yammer.metrics.core.MetricName;
 import io.opentelemetry.api.common.Attributes;
 import io.opentelemetry.api.common.AttributesBuilder;
+import net.uweeisele.kafka.metrics.reporter.otel.internal.AttributeInterner;
 import net.uweeisele.kafka.metrics.reporter.otel.internal.Context;
 
 import java.util.*;
@@ -12,6 +13,18 @@ import java.util.function.Function;
 
 class InstrumentDescriptor {
 
+    private static final int PROPERTIES_STRIPES = 16;
+
+    // Parsed key properties per registered metric, parsed once for filtering, building and removing the metric. Striped
+    // by hash like the pools of the AttributeInterner, so that parallel registrations do not contend on one lock.
+    private static final List<Map<MetricName, Map<String, String>>> PROPERTIES = new ArrayList<>(PROPERTIES_STRIPES);
+
+    static {
+        for (int i = 0; i < PROPERTIES_STRIPES; i++) {
+            PROPERTIES.add(new WeakHashMap<>());
+        }
+    }
+
     private final String name;
     private final Attributes attributes;
 
@@ -38,7 +51,7 @@ class InstrumentDescriptor {
     InstrumentDescriptor withAttribute(Consumer<AttributesBuilder> builderHandler) {
         AttributesBuilder builder = getAttributes().toBuilder();
         builderHandler.accept(builder);
-        return new InstrumentDescriptor(getName(), builder.build(), nameManipulator);
+        return new InstrumentDescriptor(getName(), AttributeInterner.attributes(builder.build()), nameManipulator);
     }
 
     InstrumentDescriptor withSuffix(String suffix) {
@@ -82,8 +95,19 @@ class InstrumentDescriptor {
             return this;
         }
 
+        /**
+         * @return a builder for the new context with the same name manipulator.
+         */
+        Builder withContext(Context newContext) {
+            return new Builder(newContext).withNameManipulator(nameManipulator);
+        }
+
+        Context getContext() {
+            return context;
+        }
+
         InstrumentDescriptor build(MetricName name) {
-            return new InstrumentDescriptor(buildName(name), Attributes.builder().putAll(context.getAttributes()).putAll(buildAttributes(name)).build(), nameManipulator);
+            return new InstrumentDescriptor(buildName(name), buildAttributes(name), nameManipulator);
         }
 
         private String buildName(MetricName name) {
@@ -91,29 +115,54 @@ class InstrumentDescriptor {
         }
 
         private Attributes buildAttributes(MetricName name) {
-            AttributesBuilder builder = Attributes.builder();
-            Arrays.stream(name.getMBeanName().replaceFirst("^[^:]+:", "").split(","))
-                    .map(this::toEntry)
-                    .filter(entry -> !entry.getKey().equals("name"))
-                    .forEach(entry -> builder.put(entry.getKey(), removeParts(entry.getValue(), "\"")));
-            return builder.build();
+            AttributesBuilder builder = Attributes.builder().putAll(context.getAttributes());
+            properties(name).forEach((key, value) -> {
+                if (!key.equals("name")) {
+                    AttributeInterner.put(builder, key, value);
+                }
+            });
+            return AttributeInterner.attributes(builder.build());
         }
+    }
 
-        private String removeParts(String value, String... parts) {
-            return removeParts(value, List.of(parts));
+    /**
+     * @return the key properties of the MBean name of the metric in their original order, with quotes removed.
+     */
+    static Map<String, String> properties(MetricName name) {
+        Map<MetricName, Map<String, String>> stripe = PROPERTIES.get((name.hashCode() & 0x7fffffff) % PROPERTIES_STRIPES);
+        Map<String, String> properties;
+        synchronized (stripe) {
+            properties = stripe.get(name);
         }
-
-        private String removeParts(String value, Collection<String> parts) {
-            for (String part : parts) {
-                value = value.replaceAll("(?i)" + part, "");
+        if (properties == null) {
+            // Parsed outside of the lock, a concurrent caller may parse the same name, but only one result is kept.
+            Map<String, String> parsed = parseProperties(name.getMBeanName());
+            synchronized (stripe) {
+                properties = stripe.putIfAbsent(name, parsed);
+            }
+            if (properties == null) {
+                properties = parsed;
             }
-            return value;
         }
+        return properties;
+    }
 
-        private Map.Entry<String, String> toEntry(String value) {
-            String[] keyValue = value.split("=");
-            return Map.entry(keyValue[0], keyValue[1]);
+    private static Map<String, String> parseProperties(String mBeanName) {
+        Map<String, String> properties = new LinkedHashMap<>();
+        int start = mBeanName.indexOf(':') + 1;
+        while (start < mBeanName.length()) {
+            int end = mBeanName.indexOf(',', start);
+            if (end < 0) {
+                end = mBeanName.length();
+            }
+            int separator = mBeanName.indexOf('=', start);
+            if (separator > start && separator < end) {
+                properties.put(AttributeInterner.value(mBeanName.substring(start, separator)),
+                        AttributeInterner.value(mBeanName.substring(separator + 1, end).replace("\"", "")));
+            }
+            start = end + 1;
         }
+        return Collections.unmodifiableMap(properties);
     }
 
 }
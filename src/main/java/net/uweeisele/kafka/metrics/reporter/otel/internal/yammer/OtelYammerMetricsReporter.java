@@ -2,19 +2,27 @@ package net.uweeisele.kafka.metrics.reporter.otel.internal.yammer;
 
 import com.yammer.metrics.core.Timer;
 import com.yammer.metrics.core.*;
+import com.yammer.metrics.stats.Snapshot;
 import io.opentelemetry.api.metrics.Meter;
-import io.opentelemetry.instrumentation.api.internal.GuardedBy;
+import net.uweeisele.kafka.metrics.reporter.otel.OtelMetricsReporterConfig;
+import net.uweeisele.kafka.metrics.reporter.otel.internal.BulkRegistration;
 import net.uweeisele.kafka.metrics.reporter.otel.internal.CaseType;
 import net.uweeisele.kafka.metrics.reporter.otel.internal.Context;
+import net.uweeisele.kafka.metrics.reporter.otel.internal.LazyGaugeValue;
+import net.uweeisele.kafka.metrics.reporter.otel.internal.RegistrationExecutor;
+import net.uweeisele.kafka.metrics.reporter.otel.internal.SelfMetrics;
+import net.uweeisele.kafka.metrics.reporter.otel.internal.filter.MetricFilter;
+import net.uweeisele.kafka.metrics.reporter.otel.internal.instrument.InstrumentRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.Duration;
 import java.util.*;
-import java.util.stream.DoubleStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.ToDoubleFunction;
 
 import static java.util.Collections.emptyList;
-import static java.util.stream.Collectors.toList;
 
 // https://prometheus.io/docs/practices/naming/
 // https://www.robustperception.io/on-the-naming-of-things/
@@ -27,27 +35,230 @@ public class OtelYammerMetricsReporter implements MetricsRegistryListener, AutoC
 
     private static final Logger log = LoggerFactory.getLogger(OtelYammerMetricsReporter.class);
 
-    private final Meter meter;
-    private final InstrumentDescriptor.Builder descriptorBuilder;
+    private static final double[] PERCENTILES = {0.5, 0.75, 0.95, 0.98, 0.99, 0.999};
 
-    private final Object lock = new Object();
-    @GuardedBy("lock")
-    private final Map<MetricName, List<AutoCloseable>> registeredObservables = new HashMap<>();
+    private final InstrumentRegistry instruments;
+    private volatile InstrumentDescriptor.Builder descriptorBuilder;
+    private final RegistrationExecutor registrations;
+    private volatile MetricFilter filter;
+    private final SelfMetrics selfMetrics;
+    private final boolean compactMeters;
+    private final boolean lazyRegistration;
+    private final int bulkParallelism;
+
+    // Set while the registry replays its existing metrics to this listener, on the thread which added it.
+    private volatile Thread replayThread;
+    private List<Map.Entry<MetricName, Metric>> replayedMetrics;
+
+    // All known metrics, including excluded ones, so that the filter can be applied again on reconfiguration.
+    private final ConcurrentMap<MetricName, Metric> metrics = new ConcurrentHashMap<>();
+    // Replaced and removed observables are closed outside of the map, so that closing them never blocks other callers.
+    private final ConcurrentMap<MetricName, List<AutoCloseable>> registeredObservables = new ConcurrentHashMap<>();
 
     public OtelYammerMetricsReporter(Meter meter, Context context) {
-        this.meter = meter;
-        this.descriptorBuilder = InstrumentDescriptor.builder(context).withNameManipulator(CaseType.CAMEL_CASE.getManipulator().andThen(CaseType.FIRST_UPPER_CASE.getManipulator()));
+        this(meter, context, new OtelMetricsReporterConfig(Map.of()));
+    }
+
+    public OtelYammerMetricsReporter(Meter meter, Context context, OtelMetricsReporterConfig config) {
+        this(meter, context, config, SelfMetrics.DISABLED);
+    }
+
+    public OtelYammerMetricsReporter(Meter meter, Context context, OtelMetricsReporterConfig config, SelfMetrics selfMetrics) {
+        this(InstrumentRegistry.create(meter, config),
+                InstrumentDescriptor.builder(context).withNameManipulator(CaseType.CAMEL_CASE.getManipulator().andThen(CaseType.FIRST_UPPER_CASE.getManipulator())),
+                RegistrationExecutor.create("yammer", config),
+                MetricFilter.create(config),
+                selfMetrics,
+                config.yammerMeterCompact(),
+                config.lazyRegistrationEnabled(),
+                config.bulkRegistrationParallelism());
     }
 
-    OtelYammerMetricsReporter(Meter meter, InstrumentDescriptor.Builder descriptorBuilder) {
-        this.meter = meter;
+    OtelYammerMetricsReporter(InstrumentRegistry instruments, InstrumentDescriptor.Builder descriptorBuilder, RegistrationExecutor registrations,
+                              MetricFilter filter, SelfMetrics selfMetrics, boolean compactMeters, boolean lazyRegistration,
+                              int bulkParallelism) {
+        this.instruments = instruments;
         this.descriptorBuilder = descriptorBuilder;
+        this.registrations = registrations;
+        this.filter = filter;
+        this.selfMetrics = selfMetrics;
+        this.compactMeters = compactMeters;
+        this.lazyRegistration = lazyRegistration;
+        this.bulkParallelism = bulkParallelism;
+        selfMetrics.observe(instruments, registrations, registeredObservables::size);
+    }
+
+    /**
+     * Adds this reporter as listener to the registry. The existing metrics, which the registry replays to every new
+     * listener, are collected and added in bulk, see {@link BulkRegistration}. With asynchronous registration, they are
+     * just queued like any other change.
+     */
+    public void listenTo(MetricsRegistry registry) {
+        if (registrations != RegistrationExecutor.DIRECT) {
+            registry.addListener(this);
+            return;
+        }
+        List<Map.Entry<MetricName, Metric>> replayed = new ArrayList<>();
+        replayedMetrics = replayed;
+        replayThread = Thread.currentThread();
+        try {
+            registry.addListener(this);
+        } finally {
+            replayThread = null;
+            replayedMetrics = null;
+        }
+        BulkRegistration.forEach("yammer", replayed, bulkParallelism, e -> addExistingMetric(e.getKey(), e.getValue()));
     }
 
     @Override
     public void onMetricAdded(MetricName name, Metric metric) {
+        long start = selfMetrics.start();
+        // Published before the filter is read, so that a concurrent reconfiguration either sees the metric or is seen.
+        metrics.put(name, metric);
+        if (!isIncluded(name)) {
+            log.trace("Skipping excluded Yammer metric: {}", name);
+        } else if (replayThread == Thread.currentThread()) {
+            replayedMetrics.add(Map.entry(name, metric));
+        } else {
+            registrations.execute(name, () -> addMetric(name, metric), false);
+        }
+        selfMetrics.recordAdd(start);
+    }
+
+    @Override
+    public void onMetricRemoved(MetricName name) {
+        long start = selfMetrics.start();
+        // The metric may have been added under a different filter, so its instruments are always removed.
+        if (metrics.remove(name) != null) {
+            registrations.execute(name, () -> removeMetric(name), true);
+        }
+        selfMetrics.recordRemove(start);
+    }
+
+    public InstrumentRegistry getInstruments() {
+        return instruments;
+    }
+
+    @Override
+    public void close() {
+        selfMetrics.close();
+        registrations.close();
+        instruments.close(() -> {
+            for (MetricName name : registeredObservables.keySet()) {
+                List<AutoCloseable> removedMetrics = registeredObservables.remove(name);
+                if (removedMetrics != null) {
+                    removedMetrics.forEach(this::closeObservable);
+                }
+            }
+        });
+        registeredObservables.clear();
+        metrics.clear();
+    }
+
+    /**
+     * Moves all registered metrics to the attributes of the new context.
+     * <p>
+     * The registry is kept. Every metric registers its series under the new attributes before its previous series are
+     * removed, so the instruments stay alive and no metric is missing in between.
+     */
+    public void contextChange(Context context) {
+        InstrumentDescriptor.Builder previousBuilder = descriptorBuilder;
+        if (previousBuilder.getContext().equals(context)) {
+            return;
+        }
+        log.info("Changing context of Yammer metrics from {} to {}", previousBuilder.getContext(), context);
+        descriptorBuilder = previousBuilder.withContext(context);
+        selfMetrics.contextChange(context);
+        for (MetricName name : registeredObservables.keySet()) {
+            // Submitted as removal, so that it is never dropped, because it may supersede a pending removal.
+            registrations.execute(name, () -> rekeyMetric(name), true);
+        }
+    }
+
+    /**
+     * Skips metrics which have been removed or replaced concurrently. A removal or replacement which happens while the
+     * instruments are registered finds nothing to remove yet, so the current state of the metric is applied afterwards.
+     */
+    private void addExistingMetric(MetricName name, Metric metric) {
+        if (metrics.get(name) == metric) {
+            addMetric(name, metric);
+            if (metrics.get(name) != metric) {
+                rekeyMetric(name);
+            }
+        }
+    }
+
+    /**
+     * Registers the metric again under the current context, or removes it if it has been removed or excluded meanwhile.
+     * The re-key may have superseded a pending addition or removal of the metric, so it has to apply either of them.
+     */
+    private void rekeyMetric(MetricName name) {
+        Metric metric = metrics.get(name);
+        if (metric != null && isIncluded(name)) {
+            addMetric(name, metric);
+        } else {
+            removeMetric(name);
+        }
+    }
+
+    /**
+     * Applies the reconfigurable configs, see {@link OtelMetricsReporterConfig#RECONFIGURABLE_CONFIGS}.
+     */
+    public void reconfigure(Map<String, ?> configs) {
+        reconfigure(MetricFilter.create(new OtelMetricsReporterConfig(configs)));
+    }
+
+    /**
+     * Applies a new filter to all known metrics. Only metrics whose decision has changed are added or removed.
+     */
+    public void reconfigure(MetricFilter newFilter) {
+        MetricFilter oldFilter = filter;
+        filter = newFilter;
+        int changed = 0;
+        for (Map.Entry<MetricName, Metric> entry : metrics.entrySet()) {
+            MetricName name = entry.getKey();
+            boolean included = isIncluded(newFilter, name);
+            if (included != isIncluded(oldFilter, name)) {
+                registrations.execute(name, () -> applyFilter(name), !included);
+                changed++;
+            }
+        }
+        log.info("Reconfigured metric filter of Yammer metrics, {} of {} metrics changed", changed, metrics.size());
+    }
+
+    /**
+     * Adds or removes the instruments of a metric according to the current filter. Runs as a registration change, so
+     * that it is ordered with all other changes of the metric.
+     */
+    private void applyFilter(MetricName name) {
+        Metric metric = metrics.get(name);
+        if (metric != null && isIncluded(name)) {
+            if (!registeredObservables.containsKey(name)) {
+                addMetric(name, metric);
+            }
+        } else {
+            removeMetric(name);
+        }
+    }
+
+    /**
+     * The group of a Yammer metric in the filter rules is its group and type, e.g. kafka.server.BrokerTopicMetrics.
+     */
+    private boolean isIncluded(MetricName name) {
+        return isIncluded(filter, name);
+    }
+
+    private static boolean isIncluded(MetricFilter filter, MetricName name) {
+        if (filter == MetricFilter.INCLUDE_ALL) {
+            return true;
+        }
+        return filter.test(name.getGroup() + "." + name.getType(), name.getName(), InstrumentDescriptor.properties(name));
+    }
+
+    private void addMetric(MetricName name, Metric metric) {
         log.trace("Adding instruments for Yammer metrics: {}", name);
-        InstrumentDescriptor descriptor = descriptorBuilder.build(name);
+        InstrumentDescriptor.Builder builder = descriptorBuilder;
+        InstrumentDescriptor descriptor = builder.build(name);
         List<AutoCloseable> observables;
         if (metric instanceof Timer) {
             observables = registerTimer(descriptor, (Timer) metric);
@@ -58,76 +269,74 @@ public class OtelYammerMetricsReporter implements MetricsRegistryListener, AutoC
         } else if (metric instanceof Counter) {
             observables = registerCounter(descriptor, (Counter) metric);
         } else if (metric instanceof Gauge<?>) {
-            observables = registerGauge(descriptor, (Gauge<?>) metric);
+            observables = lazyRegistration ? registerLazyGauge(name, descriptor, (Gauge<?>) metric) : registerGauge(descriptor, (Gauge<?>) metric);
         } else {
             observables = emptyList();
         }
 
-        synchronized (lock) {
-            List<AutoCloseable> removedMetrics = registeredObservables.put(name, observables);
-            if (removedMetrics != null) {
-                log.trace("Replacing instruments of Yammer metric: {}", name);
-                removedMetrics.forEach(this::closeObservable);
-            } else {
-                log.trace("Adding instruments of Yammer metric: {}", name);
-            }
+        List<AutoCloseable> removedMetrics = registeredObservables.put(name, observables);
+        if (removedMetrics != null) {
+            log.trace("Replacing instruments of Yammer metric: {}", name);
+            removedMetrics.forEach(this::closeObservable);
+        } else {
+            log.trace("Adding instruments of Yammer metric: {}", name);
         }
-    }
-
-    @Override
-    public void onMetricRemoved(MetricName name) {
-        synchronized (lock) {
-            List<AutoCloseable> removedMetrics = registeredObservables.remove(name);
-            if (removedMetrics != null) {
-                log.trace("Removing instruments of Yammer metric: {}", name);
-                removedMetrics.forEach(this::closeObservable);
-            }
+        if (descriptorBuilder != builder) {
+            // The context has changed while registering, possibly after the context change has collected the metrics
+            // to re-key, so the metric has to be re-keyed here.
+            rekeyMetric(name);
         }
     }
 
-    @Override
-    public void close() {
-        synchronized (lock) {
-            for (Iterator<List<AutoCloseable>> it = registeredObservables.values().iterator(); it.hasNext(); ) {
-                it.next().forEach(this::closeObservable);
-                it.remove();
-            }
+    private void removeMetric(MetricName name) {
+        List<AutoCloseable> removedMetrics = registeredObservables.remove(name);
+        if (removedMetrics != null) {
+            log.trace("Removing instruments of Yammer metric: {}", name);
+            removedMetrics.forEach(this::closeObservable);
         }
     }
 
     private List<AutoCloseable> registerTimer(InstrumentDescriptor descriptor, Timer timer) {
         List<AutoCloseable> observables = new ArrayList<>();
         observables.addAll(registerMeter(descriptor, timer));
-        observables.addAll(registerSummarizable(descriptor, timer));
-        observables.addAll(registerSampling(descriptor, timer));
+        if (compactMeters) {
+            observables.add(descriptor.withSuffix("sum")
+                    .register((name, attributes) -> instruments
+                            .registerDoubleCounter(name, null, attributes, timer::sum)));
+        } else {
+            observables.addAll(registerSummarizable(descriptor, timer));
+            observables.addAll(registerSampling(descriptor, timer));
+        }
         return observables;
     }
 
+    /**
+     * With the compact profile, only the count is exported and the rates of the meter are never read.
+     */
     private List<AutoCloseable> registerMeter(InstrumentDescriptor descriptor, Metered metered) {
+        AutoCloseable countObservable = descriptor.withSuffix("count")
+                .register((name, attributes) -> instruments
+                        .registerLongCounter(name, null, attributes, metered::count));
+        if (compactMeters) {
+            return List.of(countObservable);
+        }
         InstrumentDescriptor meteredDescriptor = descriptor.withAttribute(b -> b
                         .put("eventType", metered.eventType())
                         .put("rateUnit", metered.rateUnit().name().toLowerCase()));
         return List.of(
-                descriptor.withSuffix("count")
-                    .register((name, attributes) -> meter
-                            .counterBuilder(name)
-                            .buildWithCallback(o -> o.record(metered.count(), attributes))),
+                countObservable,
                 meteredDescriptor
-                    .register((name, attributes) -> meter
-                            .gaugeBuilder(name)
-                            .buildWithCallback(o -> o.record(metered.meanRate(), attributes))),
+                    .register((name, attributes) -> instruments
+                            .registerDoubleGauge(name, null, attributes, metered::meanRate)),
                 meteredDescriptor.withAttribute(b -> b.put("rateWindow", Duration.ofMinutes(1).toString()))
-                    .register((name, attributes) -> meter
-                            .gaugeBuilder(name)
-                            .buildWithCallback(o -> o.record(metered.oneMinuteRate(), attributes))),
+                    .register((name, attributes) -> instruments
+                            .registerDoubleGauge(name, null, attributes, metered::oneMinuteRate)),
                 meteredDescriptor.withAttribute(b -> b.put("rateWindow", Duration.ofMinutes(5).toString()))
-                    .register((name, attributes) -> meter
-                            .gaugeBuilder(name)
-                            .buildWithCallback(o -> o.record(metered.fiveMinuteRate(), attributes))),
+                    .register((name, attributes) -> instruments
+                            .registerDoubleGauge(name, null, attributes, metered::fiveMinuteRate)),
                 meteredDescriptor.withAttribute(b -> b.put("rateWindow", Duration.ofMinutes(15).toString()))
-                    .register((name, attributes) -> meter
-                            .gaugeBuilder(name)
-                            .buildWithCallback(o -> o.record(metered.fifteenMinuteRate(), attributes)))
+                    .register((name, attributes) -> instruments
+                            .registerDoubleGauge(name, null, attributes, metered::fifteenMinuteRate))
         );
     }
 
@@ -135,9 +344,8 @@ public class OtelYammerMetricsReporter implements MetricsRegistryListener, AutoC
         List<AutoCloseable> observables = new ArrayList<>();
         observables.add(
                 descriptor.withSuffix("count")
-                        .register((name, attributes) -> meter
-                                .counterBuilder(name)
-                                .buildWithCallback(o -> o.record(histogram.count(), attributes)))
+                        .register((name, attributes) -> instruments
+                                .registerLongCounter(name, null, attributes, histogram::count))
         );
         observables.addAll(registerSummarizable(descriptor, histogram));
         observables.addAll(registerSampling(descriptor, histogram));
@@ -145,45 +353,45 @@ public class OtelYammerMetricsReporter implements MetricsRegistryListener, AutoC
     }
 
     private List<AutoCloseable> registerSummarizable(InstrumentDescriptor descriptor, Summarizable summarizable) {
+        CycleSharedValue<Summary> summary = new CycleSharedValue<>(new Summary(summarizable)::read);
         return List.of(
                 descriptor.withSuffix("max")
-                        .register((name, attributes) -> meter
-                                .gaugeBuilder(name)
-                                .buildWithCallback(o -> o.record(summarizable.max(), attributes))),
+                        .register((name, attributes) -> instruments
+                                .registerDoubleGauge(name, null, attributes, () -> summary.getAsDouble(0, Summary::max))),
                 descriptor.withSuffix("min")
-                        .register((name, attributes) -> meter
-                                .gaugeBuilder(name)
-                                .buildWithCallback(o -> o.record(summarizable.min(), attributes))),
+                        .register((name, attributes) -> instruments
+                                .registerDoubleGauge(name, null, attributes, () -> summary.getAsDouble(1, Summary::min))),
                 descriptor.withSuffix("mean")
-                        .register((name, attributes) -> meter
-                                .gaugeBuilder(name)
-                                .buildWithCallback(o -> o.record(summarizable.mean(), attributes))),
+                        .register((name, attributes) -> instruments
+                                .registerDoubleGauge(name, null, attributes, () -> summary.getAsDouble(2, Summary::mean))),
                 descriptor.withSuffix("sum")
-                        .register((name, attributes) -> meter
-                                .gaugeBuilder(name)
-                                .buildWithCallback(o -> o.record(summarizable.sum(), attributes))),
+                        .register((name, attributes) -> instruments
+                                .registerDoubleGauge(name, null, attributes, () -> summary.getAsDouble(3, Summary::sum))),
                 descriptor.withSuffix("stdDev")
-                        .register((name, attributes) -> meter
-                                .gaugeBuilder(name)
-                                .buildWithCallback(o -> o.record(summarizable.stdDev(), attributes)))
+                        .register((name, attributes) -> instruments
+                                .registerDoubleGauge(name, null, attributes, () -> summary.getAsDouble(4, Summary::stdDev)))
                 );
     }
 
     private List<AutoCloseable> registerSampling(InstrumentDescriptor descriptor, Sampling sampling) {
-        return DoubleStream.of(0.5, 0.75, 0.95, 0.98, 0.99, 0.999)
-                .mapToObj(percentile -> descriptor.withAttribute(b -> b.put("percentile", percentile))
-                        .register((name, attributes) -> meter
-                                .gaugeBuilder(name)
-                                .buildWithCallback(o -> o.record(sampling.getSnapshot().getValue(percentile), attributes))))
-                .collect(toList());
+        CycleSharedValue<Snapshot> snapshot = new CycleSharedValue<>(sampling::getSnapshot);
+        List<AutoCloseable> observables = new ArrayList<>(PERCENTILES.length);
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            int consumer = i;
+            double percentile = PERCENTILES[i];
+            ToDoubleFunction<Snapshot> value = s -> s.getValue(percentile);
+            observables.add(descriptor.withAttribute(b -> b.put("percentile", percentile))
+                    .register((name, attributes) -> instruments
+                            .registerDoubleGauge(name, null, attributes, () -> snapshot.getAsDouble(consumer, value))));
+        }
+        return observables;
     }
 
     private List<AutoCloseable> registerCounter(InstrumentDescriptor descriptor, Counter counter) {
         return List.of(
                 descriptor.withSuffix("count")
-                        .register((name, attributes) -> meter
-                                .counterBuilder(name)
-                                .buildWithCallback(o -> o.record(counter.count(), attributes)))
+                        .register((name, attributes) -> instruments
+                                .registerLongCounter(name, null, attributes, counter::count))
         );
     }
 
@@ -198,18 +406,29 @@ public class OtelYammerMetricsReporter implements MetricsRegistryListener, AutoC
         } else {
             return List.of(
                     descriptor
-                            .register((name, attributes) -> meter
-                                    .gaugeBuilder(name)
-                                    .buildWithCallback(o -> o.record(toDouble(gauge.value()), attributes)))
+                            .register((name, attributes) -> instruments
+                                    .registerDoubleGauge(name, null, attributes, () -> toDouble(gauge.value())))
             );
         }
     }
 
-    private Double toDouble(Object value) {
+    /**
+     * Registers the gauge without reading it. A gauge which turns out not to be numeric is removed again.
+     */
+    private List<AutoCloseable> registerLazyGauge(MetricName metricName, InstrumentDescriptor descriptor, Gauge<?> gauge) {
+        LazyGaugeValue value = new LazyGaugeValue(metricName, gauge::value, () -> registrations.execute(metricName, () -> removeMetric(metricName), true));
+        return List.of(
+                descriptor
+                        .register((name, attributes) -> instruments
+                                .registerDoubleGauge(name, null, attributes, value))
+        );
+    }
+
+    private static double toDouble(Object value) {
         if (value instanceof Number) {
             return ((Number) value).doubleValue();
         }
-        return null;
+        return Double.NaN;
     }
 
     private void closeObservable(AutoCloseable observable) {
@@ -0,0 +1,53 @@
+package net.uweeisele.kafka.metrics.reporter.otel.internal.yammer;
+
+import com.yammer.metrics.core.Summarizable;
+
+/**
+ * Values of a {@link Summarizable}, read together once per collection cycle.
+ * <p>
+ * The same instance is read again in every cycle, so it must only be accessed while holding the lock of its
+ * {@link CycleSharedValue}.
+ */
+class Summary {
+
+    private final Summarizable summarizable;
+
+    private double max;
+    private double min;
+    private double mean;
+    private double sum;
+    private double stdDev;
+
+    Summary(Summarizable summarizable) {
+        this.summarizable = summarizable;
+    }
+
+    Summary read() {
+        max = summarizable.max();
+        min = summarizable.min();
+        mean = summarizable.mean();
+        sum = summarizable.sum();
+        stdDev = summarizable.stdDev();
+        return this;
+    }
+
+    double max() {
+        return max;
+    }
+
+    double min() {
+        return min;
+    }
+
+    double mean() {
+        return mean;
+    }
+
+    double sum() {
+        return sum;
+    }
+
+    double stdDev() {
+        return stdDev;
+    }
+}
@@ -0,0 +1,143 @@
+package net.uweeisele.kafka.metrics.reporter.otel;
+
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.sdk.OpenTelemetrySdk;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.testing.exporter.InMemoryMetricReader;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.metrics.Gauge;
+import org.apache.kafka.common.metrics.KafkaMetric;
+import org.apache.kafka.common.metrics.KafkaMetricsContext;
+import org.apache.kafka.common.metrics.Measurable;
+import org.apache.kafka.common.metrics.MetricConfig;
+import org.apache.kafka.common.utils.Time;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import static net.uweeisele.kafka.metrics.reporter.otel.OtelMetricsReporterConfig.SDK_ASYNC_INIT_ENABLED_CONFIG;
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OtelMetricsReporterTest {
+
+    private InMemoryMetricReader metricReader;
+    private OpenTelemetrySdk sdk;
+    private CompletableFuture<OpenTelemetry> sdkInitialization;
+    private OtelMetricsReporter reporter;
+
+    @BeforeEach
+    void setUp() {
+        metricReader = InMemoryMetricReader.create();
+        sdk = OpenTelemetrySdk.builder()
+                .setMeterProvider(SdkMeterProvider.builder().registerMetricReader(metricReader).build())
+                .build();
+        sdkInitialization = new CompletableFuture<>();
+        reporter = new OtelMetricsReporter(configs -> sdkInitialization);
+        reporter.configure(Map.of(SDK_ASYNC_INIT_ENABLED_CONFIG, "true"));
+    }
+
+    @AfterEach
+    void tearDown() {
+        reporter.close();
+        sdk.close();
+    }
+
+    @Test
+    void shouldBufferChangesUntilSdkIsInitialized() {
+        reporter.contextChange(new KafkaMetricsContext("kafka.producer", Map.of("client.id", "producer-1")));
+        reporter.init(List.of());
+        reporter.metricChange(metric("first-total"));
+
+        assertTrue(metricNames().isEmpty());
+
+        sdkInitialization.complete(sdk);
+
+        assertEquals(Set.of("kafka.producer.First"), metricNames());
+    }
+
+    @Test
+    void shouldReplayBufferedChangesInOrder() {
+        KafkaMetric first = metric("first-total");
+        reporter.contextChange(new KafkaMetricsContext("kafka.producer", Map.of("client.id", "producer-1")));
+        reporter.init(List.of());
+        reporter.metricChange(first);
+        reporter.metricChange(metric("second-total"));
+        reporter.metricRemoval(first);
+
+        sdkInitialization.complete(sdk);
+
+        List<MetricData> metrics = List.copyOf(metricReader.collectAllMetrics());
+        assertEquals(1, metrics.size());
+        assertEquals("kafka.producer.Second", metrics.get(0).getName());
+        assertEquals("producer-1", metrics.get(0).getData().getPoints().iterator().next().getAttributes().get(AttributeKey.stringKey("clientId")));
+
+        reporter.metricChange(metric("third-total"));
+
+        assertEquals(Set.of("kafka.producer.Second", "kafka.producer.Third"), metricNames());
+    }
+
+    @Test
+    void shouldDropBufferedChangesIfClosedBeforeSdkIsInitialized() {
+        reporter.contextChange(new KafkaMetricsContext("kafka.producer", Map.of("client.id", "producer-1")));
+        reporter.init(List.of());
+        reporter.metricChange(metric("first-total"));
+
+        reporter.close();
+        sdkInitialization.complete(sdk);
+        reporter.metricChange(metric("second-total"));
+
+        assertTrue(metricNames().isEmpty());
+    }
+
+    @Test
+    void shouldFallBackToNoopIfSdkInitializationFails() {
+        reporter.contextChange(new KafkaMetricsContext("kafka.producer", Map.of("client.id", "producer-1")));
+        reporter.init(List.of());
+        reporter.metricChange(metric("first-total"));
+
+        sdkInitialization.completeExceptionally(new IllegalStateException("Initialization failed"));
+
+        assertDoesNotThrow(() -> reporter.metricChange(metric("second-total")));
+        assertDoesNotThrow(() -> reporter.metricRemoval(metric("first-total")));
+        assertTrue(metricNames().isEmpty());
+    }
+
+    @Test
+    void shouldRekeyMetricWhichIsAddedWhileContextChanges() {
+        reporter.contextChange(new KafkaMetricsContext("kafka.producer", Map.of("client.id", "producer-1")));
+        reporter.init(List.of());
+        sdkInitialization.complete(sdk);
+
+        // The context changes after the metric has been built, but before it is registered, so the context change
+        // does not find it yet.
+        reporter.metricChange(new KafkaMetric(new Object(), new MetricName("first", "producer-metrics", "", Map.of("client-id", "producer-1")),
+                (Gauge<Double>) (config, now) -> {
+                    reporter.contextChange(new KafkaMetricsContext("kafka.producer", Map.of("client.id", "producer-2")));
+                    return 1.0;
+                }, new MetricConfig(), Time.SYSTEM));
+
+        List<MetricData> metrics = List.copyOf(metricReader.collectAllMetrics());
+        assertEquals(1, metrics.size());
+        assertEquals(List.of("producer-2"), metrics.get(0).getData().getPoints().stream()
+                .map(point -> point.getAttributes().get(AttributeKey.stringKey("clientId"))).collect(Collectors.toList()));
+    }
+
+    private Set<String> metricNames() {
+        return metricReader.collectAllMetrics().stream().map(MetricData::getName).collect(Collectors.toSet());
+    }
+
+    private static KafkaMetric metric(String name) {
+        return new KafkaMetric(new Object(), new MetricName(name, "producer-metrics", "", Map.of("client-id", "producer-1")),
+                (Measurable) (config, now) -> 1.0, new MetricConfig(), Time.SYSTEM);
+    }
+}
@@ -0,0 +1,87 @@
+package net.uweeisele.kafka.metrics.reporter.otel;
+
+import io.opentelemetry.api.OpenTelemetry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SingletonOpenTelemetryProviderTest {
+
+    private static final Map<String, String> CONFIGS = Map.of("otel.metrics.exporter", "none");
+
+    private final OpenTelemetry openTelemetry = OpenTelemetry.noop();
+    private final AtomicInteger builds = new AtomicInteger();
+
+    @Test
+    void shouldNotBlockOtherCallersWhileSdkIsBuilt() throws InterruptedException {
+        CountDownLatch building = new CountDownLatch(1);
+        CountDownLatch built = new CountDownLatch(1);
+        SingletonOpenTelemetryProvider provider = new SingletonOpenTelemetryProvider(configs -> {
+            builds.incrementAndGet();
+            building.countDown();
+            await(built);
+            return openTelemetry;
+        });
+
+        CompletableFuture<OpenTelemetry> first = provider.initializeAsync(CONFIGS);
+        assertTrue(building.await(10, TimeUnit.SECONDS));
+        CompletableFuture<OpenTelemetry> second = assertTimeoutPreemptively(Duration.ofSeconds(1), () -> provider.initializeAsync(CONFIGS));
+        assertThrows(IllegalStateException.class, () -> provider.initializeAsync(Map.of()));
+        CompletableFuture<OpenTelemetry> third = CompletableFuture.supplyAsync(() -> provider.initialize(CONFIGS));
+
+        assertFalse(first.isDone());
+        assertFalse(second.isDone());
+        built.countDown();
+
+        assertSame(openTelemetry, first.join());
+        assertSame(openTelemetry, second.join());
+        assertSame(openTelemetry, third.join());
+        assertEquals(1, builds.get());
+    }
+
+    @Test
+    void shouldRejectDifferentConfigsOnceInitialized() {
+        SingletonOpenTelemetryProvider provider = new SingletonOpenTelemetryProvider(configs -> openTelemetry);
+
+        assertSame(openTelemetry, provider.initialize(CONFIGS));
+        assertSame(openTelemetry, provider.initializeAsync(CONFIGS).join());
+
+        assertThrows(IllegalStateException.class, () -> provider.initialize(Map.of()));
+        assertThrows(IllegalStateException.class, () -> provider.initializeAsync(Map.of()));
+    }
+
+    @Test
+    void shouldRetryFailedSdkInitialization() {
+        SingletonOpenTelemetryProvider provider = new SingletonOpenTelemetryProvider(configs -> {
+            if (builds.incrementAndGet() == 1) {
+                throw new IllegalStateException("Initialization failed");
+            }
+            return openTelemetry;
+        });
+
+        assertThrows(CompletionException.class, () -> provider.initializeAsync(CONFIGS).join());
+        assertSame(openTelemetry, provider.initializeAsync(CONFIGS).join());
+        assertEquals(2, builds.get());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
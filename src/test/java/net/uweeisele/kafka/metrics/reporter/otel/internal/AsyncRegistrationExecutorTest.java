@@ -0,0 +1,77 @@
+package net.uweeisele.kafka.metrics.reporter.otel.internal;
+
+import net.uweeisele.kafka.metrics.reporter.otel.internal.AsyncRegistrationExecutor.OverflowPolicy;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AsyncRegistrationExecutorTest {
+
+    @Test
+    void shouldOnlyApplyLatestChangePerMetric() throws Exception {
+        List<String> applied = new CopyOnWriteArrayList<>();
+        CountDownLatch workerBlocked = new CountDownLatch(1);
+        CountDownLatch releaseWorker = new CountDownLatch(1);
+        try (AsyncRegistrationExecutor executor = new AsyncRegistrationExecutor("test", 10, 10, OverflowPolicy.DROP, Duration.ZERO)) {
+            executor.execute("blocker", () -> {
+                workerBlocked.countDown();
+                await(releaseWorker);
+            }, false);
+            assertTrue(workerBlocked.await(10, TimeUnit.SECONDS));
+
+            executor.execute("a", () -> applied.add("add a"), false);
+            executor.execute("a", () -> applied.add("remove a"), true);
+            executor.execute("a", () -> applied.add("add a again"), false);
+            executor.execute("b", () -> applied.add("add b"), false);
+            assertEquals(2, executor.pendingChanges());
+
+            CountDownLatch done = new CountDownLatch(1);
+            executor.execute("done", done::countDown, false);
+            releaseWorker.countDown();
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+        }
+
+        assertEquals(List.of("add a again", "add b"), applied);
+    }
+
+    @Test
+    void shouldDropAdditionsButAcceptRemovalsIfQueueIsFull() throws Exception {
+        List<String> applied = new CopyOnWriteArrayList<>();
+        CountDownLatch workerBlocked = new CountDownLatch(1);
+        CountDownLatch releaseWorker = new CountDownLatch(1);
+        try (AsyncRegistrationExecutor executor = new AsyncRegistrationExecutor("test", 1, 10, OverflowPolicy.BLOCK, Duration.ofMillis(10))) {
+            executor.execute("blocker", () -> {
+                workerBlocked.countDown();
+                await(releaseWorker);
+            }, false);
+            assertTrue(workerBlocked.await(10, TimeUnit.SECONDS));
+
+            executor.execute("a", () -> applied.add("add a"), false);
+            executor.execute("b", () -> applied.add("add b"), false);
+            executor.execute("c", () -> applied.add("remove c"), true);
+            assertEquals(1, executor.droppedChanges());
+
+            CountDownLatch done = new CountDownLatch(1);
+            executor.execute("done", done::countDown, true);
+            releaseWorker.countDown();
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+        }
+
+        assertEquals(List.of("add a", "remove c"), applied);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package net.uweeisele.kafka.metrics.reporter.otel.internal.filter;
+
+import org.apache.kafka.common.config.ConfigException;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MetricFilterTest {
+
+    @Test
+    void shouldIncludeAllWithoutRules() {
+        MetricFilter filter = MetricFilter.create(List.of(), List.of(), List.of(), List.of());
+
+        assertSame(MetricFilter.INCLUDE_ALL, filter);
+        assertTrue(filter.test("producer-metrics", "record-send-rate", Map.of("client-id", "producer-1")));
+    }
+
+    @Test
+    void shouldMatchGroupsNamesAndWildcards() {
+        MetricFilter filter = MetricFilter.create(
+                List.of("producer-metrics", "consumer-*-metrics:records-lag*", "kafka.server.BrokerTopicMetrics:?ytesInPerSec"),
+                List.of("producer-metrics:*-avg"),
+                List.of(), List.of());
+
+        assertTrue(filter.test("producer-metrics", "record-send-rate", Map.of()));
+        assertFalse(filter.test("producer-metrics", "record-size-avg", Map.of()));
+        assertTrue(filter.test("consumer-fetch-manager-metrics", "records-lag-max", Map.of()));
+        assertFalse(filter.test("consumer-fetch-manager-metrics", "fetch-rate", Map.of()));
+        assertTrue(filter.test("kafka.server.BrokerTopicMetrics", "BytesInPerSec", Map.of()));
+        assertFalse(filter.test("kafka.server.BrokerTopicMetrics", "MessagesInPerSec", Map.of()));
+        assertFalse(filter.test("producer-metrics-extra", "record-send-rate", Map.of()));
+    }
+
+    @Test
+    void shouldMatchGroupPrefixes() {
+        MetricFilter filter = MetricFilter.create(List.of("kafka.server*"), List.of(), List.of(), List.of());
+
+        assertTrue(filter.test("kafka.server.ReplicaManager", "PartitionCount", Map.of()));
+        assertFalse(filter.test("kafka.network.RequestMetrics", "RequestsPerSec", Map.of()));
+    }
+
+    @Test
+    void shouldFilterByTagValues() {
+        MetricFilter filter = MetricFilter.create(List.of(), List.of(),
+                List.of("topic=orders-*", "topic=payments"),
+                List.of("topic=orders-internal", "partition=1?"));
+
+        assertTrue(filter.test("kafka.server.BrokerTopicMetrics", "BytesInPerSec", Map.of()));
+        assertTrue(filter.test("kafka.server.BrokerTopicMetrics", "BytesInPerSec", Map.of("topic", "orders-eu")));
+        assertTrue(filter.test("kafka.server.BrokerTopicMetrics", "BytesInPerSec", Map.of("topic", "payments")));
+        assertFalse(filter.test("kafka.server.BrokerTopicMetrics", "BytesInPerSec", Map.of("topic", "payments-eu")));
+        assertFalse(filter.test("kafka.server.BrokerTopicMetrics", "BytesInPerSec", Map.of("topic", "orders-internal")));
+        assertTrue(filter.test("kafka.log.Log", "Size", Map.of("topic", "orders-eu", "partition", "2")));
+        assertFalse(filter.test("kafka.log.Log", "Size", Map.of("topic", "orders-eu", "partition", "12")));
+    }
+
+    @Test
+    void shouldQuoteRegexCharacters() {
+        MetricFilter filter = MetricFilter.create(List.of("kafka.server:*(total)?"), List.of(), List.of(), List.of());
+
+        assertTrue(filter.test("kafka.server", "bytes(total)!", Map.of()));
+        assertFalse(filter.test("kafkaXserver", "bytes(total)!", Map.of()));
+    }
+
+    @Test
+    void shouldRejectMalformedTagRules() {
+        assertThrows(ConfigException.class, () -> MetricFilter.create(List.of(), List.of(), List.of("topic"), List.of()));
+    }
+}
@@ -0,0 +1,309 @@
+package net.uweeisele.kafka.metrics.reporter.otel.internal.instrument;
+
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.testing.exporter.InMemoryMetricReader;
+import net.uweeisele.kafka.metrics.reporter.otel.OtelMetricsReporterConfig;
+import org.apache.kafka.common.config.ConfigException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.opentelemetry.api.common.AttributeKey.stringKey;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toMap;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InstrumentRegistryTest {
+
+    private InMemoryMetricReader metricReader;
+    private SdkMeterProvider meterProvider;
+
+    @BeforeEach
+    void setUp() {
+        metricReader = InMemoryMetricReader.create();
+        meterProvider = SdkMeterProvider.builder().registerMetricReader(metricReader).build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        meterProvider.close();
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void shouldRecordAllSeriesOfAnInstrument(boolean batched) throws Exception {
+        InstrumentRegistry registry = new InstrumentRegistry(meterProvider.get("test"), batched);
+
+        AutoCloseable partition0 = registry.registerDoubleGauge("kafka.log.Size", "", Attributes.builder().put("partition", "0").build(), () -> 1.0);
+        registry.registerDoubleGauge("kafka.log.Size", "", Attributes.builder().put("partition", "1").build(), () -> 2.0);
+        registry.registerLongCounter("kafka.server.Requests.Count", "", Attributes.empty(), () -> 42L);
+
+        Map<String, MetricData> metrics = collect();
+        assertEquals(2, metrics.size());
+        assertEquals(List.of(1.0, 2.0), metrics.get("kafka.log.Size").getDoubleGaugeData().getPoints().stream().map(p -> p.getValue()).sorted().collect(toList()));
+        assertEquals(42L, metrics.get("kafka.server.Requests.Count").getLongSumData().getPoints().iterator().next().getValue());
+
+        partition0.close();
+        metrics = collect();
+        assertEquals(1, metrics.get("kafka.log.Size").getDoubleGaugeData().getPoints().size());
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void shouldStopObservingInstrumentAfterLastSeriesHasBeenRemoved(boolean batched) throws Exception {
+        InstrumentRegistry registry = new InstrumentRegistry(meterProvider.get("test"), batched);
+        AtomicInteger reads = new AtomicInteger();
+
+        AutoCloseable series = registry.registerDoubleGauge("kafka.log.Size", "", Attributes.empty(), () -> reads.incrementAndGet());
+        collect();
+        series.close();
+        collect();
+
+        assertEquals(1, reads.get());
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void shouldIsolateFailingSeries(boolean batched) {
+        InstrumentRegistry registry = new InstrumentRegistry(meterProvider.get("test"), batched);
+
+        registry.registerDoubleGauge("kafka.log.Size", "", Attributes.builder().put("partition", "0").build(), () -> {
+            throw new IllegalStateException("broken metric");
+        });
+        registry.registerDoubleGauge("kafka.log.Size", "", Attributes.builder().put("partition", "1").build(), () -> 2.0);
+
+        Map<String, MetricData> metrics = collect();
+        assertTrue(metrics.containsKey("kafka.log.Size"));
+        assertEquals(1, metrics.get("kafka.log.Size").getDoubleGaugeData().getPoints().size());
+        registry.close();
+        assertTrue(collect().isEmpty());
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void shouldRecordSeriesBeyondCardinalityLimitAsOverflow(boolean batched) throws Exception {
+        InstrumentRegistry registry = new InstrumentRegistry(meterProvider.get("test"), batched, 2, List.of(), false, null, null);
+
+        registry.registerDoubleGauge("kafka.log.Size", "", Attributes.builder().put("partition", "0").build(), () -> 1.0);
+        registry.registerDoubleGauge("kafka.log.Size", "", Attributes.builder().put("partition", "1").build(), () -> 2.0);
+        registry.registerDoubleGauge("kafka.log.Size", "", Attributes.builder().put("partition", "2").build(), () -> 3.0);
+        AutoCloseable partition3 = registry.registerDoubleGauge("kafka.log.Size", "", Attributes.builder().put("partition", "3").build(), () -> 4.0);
+
+        Map<String, MetricData> metrics = collect();
+        Map<Attributes, Double> points = metrics.get("kafka.log.Size").getDoubleGaugeData().getPoints().stream()
+                .collect(toMap(p -> p.getAttributes(), p -> p.getValue()));
+        assertEquals(3, points.size());
+        assertEquals(4.0, points.get(Instrument.OVERFLOW_ATTRIBUTES), "The overflow series of a gauge records the maximum");
+        assertEquals(2L, metrics.get(InstrumentRegistry.OVERFLOW_COUNTER_NAME).getLongSumData().getPoints().iterator().next().getValue());
+
+        partition3.close();
+        points = collect().get("kafka.log.Size").getDoubleGaugeData().getPoints().stream()
+                .collect(toMap(p -> p.getAttributes(), p -> p.getValue()));
+        assertEquals(3.0, points.get(Instrument.OVERFLOW_ATTRIBUTES));
+        registry.close();
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void shouldKeepOverflowCounterMonotonicIfMetricsAreRemoved(boolean batched) throws Exception {
+        InstrumentRegistry registry = new InstrumentRegistry(meterProvider.get("test"), batched, 1, List.of(), false, null, null);
+
+        registry.registerLongCounter("kafka.server.Requests.Count", "", Attributes.builder().put("client", "a").build(), () -> 1L);
+        registry.registerLongCounter("kafka.server.Requests.Count", "", Attributes.builder().put("client", "b").build(), () -> 10L);
+        AutoCloseable client = registry.registerLongCounter("kafka.server.Requests.Count", "", Attributes.builder().put("client", "c").build(), () -> 100L);
+        assertEquals(110L, overflowValue(collect().get("kafka.server.Requests.Count")));
+
+        client.close();
+        assertEquals(110L, overflowValue(collect().get("kafka.server.Requests.Count")));
+        registry.close();
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void shouldRollUpSeriesOfMatchingInstruments(boolean batched) throws Exception {
+        InstrumentRegistry registry = new InstrumentRegistry(meterProvider.get("test"), batched, 0,
+                RollupRule.parseAll(List.of("kafka.log.Log.*:partition:sum", "kafka.server.*Lag:partition|topic:max")), false, null, null);
+        Attributes orders0 = Attributes.builder().put("topic", "orders").put("partition", "0").build();
+        Attributes orders1 = Attributes.builder().put("topic", "orders").put("partition", "1").build();
+        Attributes payments0 = Attributes.builder().put("topic", "payments").put("partition", "0").build();
+
+        registry.registerDoubleGauge("kafka.log.Log.Size", "", orders0, () -> 1.0);
+        AutoCloseable orders1Size = registry.registerDoubleGauge("kafka.log.Log.Size", "", orders1, () -> 2.0);
+        registry.registerDoubleGauge("kafka.log.Log.Size", "", payments0, () -> 4.0);
+        registry.registerDoubleGauge("kafka.server.ReplicaLag", "", orders0, () -> 1.0);
+        registry.registerDoubleGauge("kafka.server.ReplicaLag", "", payments0, () -> 5.0);
+        registry.registerDoubleGauge("kafka.cluster.Partition.UnderReplicated", "", orders0, () -> 0.0);
+
+        Map<String, MetricData> metrics = collect();
+        Map<Attributes, Double> sizes = metrics.get("kafka.log.Log.Size").getDoubleGaugeData().getPoints().stream()
+                .collect(toMap(p -> p.getAttributes(), p -> p.getValue()));
+        assertEquals(Map.of(Attributes.builder().put("topic", "orders").build(), 3.0, Attributes.builder().put("topic", "payments").build(), 4.0), sizes);
+        assertEquals(List.of(5.0), metrics.get("kafka.server.ReplicaLag").getDoubleGaugeData().getPoints().stream().map(p -> p.getValue()).collect(toList()));
+        assertEquals(orders0, metrics.get("kafka.cluster.Partition.UnderReplicated").getDoubleGaugeData().getPoints().iterator().next().getAttributes());
+
+        orders1Size.close();
+        sizes = collect().get("kafka.log.Log.Size").getDoubleGaugeData().getPoints().stream()
+                .collect(toMap(p -> p.getAttributes(), p -> p.getValue()));
+        assertEquals(1.0, sizes.get(Attributes.builder().put("topic", "orders").build()));
+        registry.close();
+    }
+
+    @Test
+    void shouldRejectMalformedRollupRules() {
+        assertThrows(ConfigException.class, () -> RollupRule.parse("kafka.log.Log.*:partition"));
+        assertThrows(ConfigException.class, () -> RollupRule.parse("kafka.log.Log.*:partition:avg"));
+        assertThrows(ConfigException.class, () -> RollupRule.parse("kafka.log.Log.*:partition|partition:sum"));
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void shouldServeLastReadingOfSlowValuesAndRefreshThemAsynchronously(boolean batched) throws Exception {
+        ValueCache valueCache = new ValueCache(Duration.ZERO, new CollectionBudget(Duration.ofMillis(1), Duration.ofMillis(5)));
+        InstrumentRegistry registry = new InstrumentRegistry(meterProvider.get("test"), batched, 0, List.of(), false, valueCache, null);
+        AtomicInteger slowReads = new AtomicInteger();
+        AtomicInteger fastReads = new AtomicInteger();
+
+        registry.registerDoubleGauge("kafka.log.Size", "", Attributes.empty(), () -> {
+            sleep(20);
+            return slowReads.incrementAndGet();
+        });
+        registry.registerLongCounter("kafka.server.Requests.Count", "", Attributes.empty(), fastReads::incrementAndGet);
+
+        assertEquals(1.0, gaugeValue(collect().get("kafka.log.Size")));
+        sleep(150);
+        Map<String, MetricData> metrics = collect();
+        assertEquals(1.0, gaugeValue(metrics.get("kafka.log.Size")));
+        assertEquals(2L, metrics.get("kafka.server.Requests.Count").getLongSumData().getPoints().iterator().next().getValue());
+        sleep(150);
+        assertEquals(2.0, gaugeValue(collect().get("kafka.log.Size")));
+        registry.close();
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void shouldShareReadingsBetweenMetricReaders(boolean batched) throws Exception {
+        InMemoryMetricReader secondReader = InMemoryMetricReader.create();
+        SdkMeterProvider sharedMeterProvider = SdkMeterProvider.builder().registerMetricReader(metricReader).registerMetricReader(secondReader).build();
+        InstrumentRegistry registry = new InstrumentRegistry(sharedMeterProvider.get("test"), batched, 0, List.of(), false,
+                new ValueCache(Duration.ofMinutes(1), null), null);
+        AtomicInteger reads = new AtomicInteger();
+
+        registry.registerDoubleGauge("kafka.log.Size", "", Attributes.empty(), reads::incrementAndGet);
+
+        assertEquals(1.0, gaugeValue(collect().get("kafka.log.Size")));
+        assertEquals(1.0, secondReader.collectAllMetrics().iterator().next().getDoubleGaugeData().getPoints().iterator().next().getValue());
+        assertEquals(1.0, gaugeValue(collect().get("kafka.log.Size")));
+        assertEquals(1, reads.get());
+        registry.close();
+        sharedMeterProvider.close();
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void shouldSuppressUnchangedSeriesExceptForHeartbeats(boolean batched) throws Exception {
+        InstrumentRegistry registry = new InstrumentRegistry(meterProvider.get("test"), batched, 0, List.of(), false, null,
+                new IdlePolicy(2, 3, Duration.ZERO));
+        AtomicInteger value = new AtomicInteger(1);
+
+        registry.registerDoubleGauge("kafka.log.Size", "", Attributes.empty(), value::get);
+
+        List<Boolean> recorded = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            recorded.add(collect().containsKey("kafka.log.Size"));
+        }
+        assertEquals(List.of(true, true, true, false, false, true), recorded);
+        value.set(2);
+        assertEquals(2.0, gaugeValue(collect().get("kafka.log.Size")));
+        registry.close();
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void shouldExpireIdleSeriesAndObserveThemAgainOnceTheyChange(boolean batched) throws Exception {
+        IdlePolicy idlePolicy = new IdlePolicy(0, 0, Duration.ofMillis(50));
+        InstrumentRegistry registry = new InstrumentRegistry(meterProvider.get("test"), batched, 0, List.of(), false, null, idlePolicy);
+        AtomicInteger value = new AtomicInteger(1);
+
+        registry.registerDoubleGauge("kafka.log.Size", "", Attributes.empty(), value::get);
+        registry.registerDoubleGauge("kafka.log.Size", "", Attributes.of(stringKey("topic"), "orders"), () -> 2.0);
+
+        assertEquals(2, collect().get("kafka.log.Size").getDoubleGaugeData().getPoints().size());
+        sleep(100);
+        assertTrue(collect().isEmpty());
+        idlePolicy.checkExpiredSeries();
+        assertTrue(collect().isEmpty());
+
+        value.set(3);
+        idlePolicy.checkExpiredSeries();
+        assertEquals(3.0, gaugeValue(collect().get("kafka.log.Size")));
+        registry.close();
+    }
+
+    @Test
+    void shouldShareRegistryBetweenReportersUntilLastReferenceIsReleased() throws Exception {
+        OtelMetricsReporterConfig config = new OtelMetricsReporterConfig(Map.of(
+                OtelMetricsReporterConfig.SHARED_REGISTRY_ENABLED_CONFIG, "true",
+                OtelMetricsReporterConfig.BATCH_CALLBACKS_ENABLED_CONFIG, "true"));
+        InstrumentRegistry producer = InstrumentRegistry.create(meterProvider.get("test"), config);
+        InstrumentRegistry consumer = InstrumentRegistry.create(meterProvider.get("test"), config);
+        assertSame(producer, consumer);
+
+        producer.registerDoubleGauge("kafka.client.ConnectionCount", "", Attributes.of(stringKey("client.id"), "producer-1"), () -> 1.0);
+        consumer.registerDoubleGauge("kafka.client.ConnectionCount", "", Attributes.of(stringKey("client.id"), "consumer-1"), () -> 2.0);
+        assertEquals(1, producer.instruments().size());
+        assertEquals(2, collect().get("kafka.client.ConnectionCount").getDoubleGaugeData().getPoints().size());
+
+        producer.close();
+        assertEquals(2, collect().get("kafka.client.ConnectionCount").getDoubleGaugeData().getPoints().size());
+        assertTrue(SharedInstrumentRegistries.contains(consumer));
+        consumer.close();
+        assertTrue(collect().isEmpty());
+        assertFalse(SharedInstrumentRegistries.contains(consumer));
+
+        InstrumentRegistry admin = InstrumentRegistry.create(meterProvider.get("test"), config);
+        assertNotSame(producer, admin);
+        InstrumentRegistry other = InstrumentRegistry.create(meterProvider.get("other"), config);
+        assertNotSame(admin, other);
+        admin.close();
+        other.close();
+    }
+
+    private static double gaugeValue(MetricData metric) {
+        return metric.getDoubleGaugeData().getPoints().iterator().next().getValue();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static long overflowValue(MetricData metric) {
+        return metric.getLongSumData().getPoints().stream()
+                .filter(p -> p.getAttributes().equals(Instrument.OVERFLOW_ATTRIBUTES))
+                .findFirst().orElseThrow().getValue();
+    }
+
+    private Map<String, MetricData> collect() {
+        Collection<MetricData> metrics = metricReader.collectAllMetrics();
+        return metrics.stream().filter(m -> !m.isEmpty()).collect(toMap(MetricData::getName, m -> m));
+    }
+}
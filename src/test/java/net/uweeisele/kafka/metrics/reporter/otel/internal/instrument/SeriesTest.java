@@ -0,0 +1,144 @@
+package net.uweeisele.kafka.metrics.reporter.otel.internal.instrument;
+
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.MeterProvider;
+import io.opentelemetry.api.metrics.ObservableDoubleMeasurement;
+import io.opentelemetry.api.metrics.ObservableLongMeasurement;
+import net.uweeisele.kafka.metrics.reporter.otel.internal.Context;
+import net.uweeisele.kafka.metrics.reporter.otel.internal.yammer.OtelYammerMetricsReporter;
+import org.apache.kafka.common.metrics.KafkaMetricsContext;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static io.opentelemetry.api.common.AttributeKey.doubleKey;
+import static io.opentelemetry.api.common.AttributeKey.stringKey;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class SeriesTest {
+
+    private static final int CYCLES = 10_000;
+    private static final int WARMUPS = 3;
+    // The JIT may allocate a few bytes once, e.g. on deoptimization. A single allocation per observation is megabytes.
+    private static final long MAX_ALLOCATED_BYTES = 1024;
+
+    @Test
+    void shouldObserveSeriesWithoutAllocating() {
+        ValueCache valueCache = new ValueCache(Duration.ofMinutes(1), null);
+        List<Series> doubleSeries = List.of(
+                newSeries(Aggregation.LAST, Series.ofDoubles(() -> 1.0)),
+                newSeries(Aggregation.LAST, Series.ofDoubles(valueCache.wrap(() -> 1.0))),
+                newSeries(Aggregation.SUM, Series.ofDoubles(() -> 1.0), Series.ofDoubles(() -> 2.0)));
+        List<Series> longSeries = List.of(
+                newSeries(Aggregation.LAST, Series.ofLongs(() -> 1L)),
+                newSeries(Aggregation.MAX, Series.ofLongs(() -> 1L), Series.ofLongs(() -> 2L)));
+
+        assertObservedWithoutAllocating(doubleSeries, longSeries);
+        valueCache.close();
+    }
+
+    /**
+     * Observes the series through the callbacks the Yammer reporter registers for counters, timers and histograms,
+     * which read the summaries of timers and histograms through a {@code CycleSharedValue}. The percentiles are left
+     * out, because Yammer copies the samples into every snapshot.
+     */
+    @Test
+    void shouldObserveYammerMetricsWithoutAllocating() {
+        MetricsRegistry metricsRegistry = new MetricsRegistry();
+        metricsRegistry.newCounter(new MetricName("kafka.server", "BrokerTopicMetrics", "Counter")).inc(3);
+        metricsRegistry.newTimer(new MetricName("kafka.network", "RequestMetrics", "Timer"), TimeUnit.MILLISECONDS, TimeUnit.SECONDS)
+                .update(5, TimeUnit.MILLISECONDS);
+        metricsRegistry.newHistogram(new MetricName("kafka.network", "RequestMetrics", "Histogram"), true).update(7);
+        OtelYammerMetricsReporter reporter = new OtelYammerMetricsReporter(MeterProvider.noop().get("test"),
+                new Context().setMetricsContext(new KafkaMetricsContext("kafka.server")));
+        reporter.listenTo(metricsRegistry);
+        List<Series> doubleSeries = new ArrayList<>();
+        List<Series> longSeries = new ArrayList<>();
+        for (Instrument instrument : reporter.getInstruments().instruments()) {
+            for (Series series : instrument.series()) {
+                if (series.getAttributes().get(doubleKey("percentile")) == null) {
+                    (instrument.getType() == InstrumentType.LONG_COUNTER ? longSeries : doubleSeries).add(series);
+                }
+            }
+        }
+        assertFalse(doubleSeries.isEmpty());
+        assertFalse(longSeries.isEmpty());
+
+        assertObservedWithoutAllocating(doubleSeries, longSeries);
+        reporter.close();
+        metricsRegistry.shutdown();
+    }
+
+    private static void assertObservedWithoutAllocating(List<Series> doubleSeries, List<Series> longSeries) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+        NoopMeasurement measurement = new NoopMeasurement();
+        long seriesCount = doubleSeries.size() + longSeries.size();
+
+        for (int i = 0; i < WARMUPS; i++) {
+            observe(doubleSeries, longSeries, measurement);
+        }
+        // Reading the allocated bytes may allocate itself, depending on the JDK.
+        long start = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        long overhead = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - start;
+        start = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        observe(doubleSeries, longSeries, measurement);
+        long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - start - overhead;
+
+        assertTrue(allocated <= MAX_ALLOCATED_BYTES, "Allocated " + allocated + " bytes while observing " + seriesCount + " series " + CYCLES + " times");
+        assertEquals((WARMUPS + 1L) * CYCLES * seriesCount, measurement.records);
+    }
+
+    private static Series newSeries(Aggregation aggregation, Series.Member... members) {
+        Series series = new Series(null, Attributes.of(stringKey("topic"), "orders"), aggregation, true, null);
+        for (Series.Member member : members) {
+            series.add(member);
+        }
+        return series;
+    }
+
+    private static void observe(List<Series> doubleSeries, List<Series> longSeries, NoopMeasurement measurement) {
+        for (int cycle = 0; cycle < CYCLES; cycle++) {
+            for (int i = 0; i < doubleSeries.size(); i++) {
+                doubleSeries.get(i).observe((ObservableDoubleMeasurement) measurement);
+            }
+            for (int i = 0; i < longSeries.size(); i++) {
+                longSeries.get(i).observe((ObservableLongMeasurement) measurement);
+            }
+        }
+    }
+
+    private static final class NoopMeasurement implements ObservableDoubleMeasurement, ObservableLongMeasurement {
+
+        private long records;
+
+        @Override
+        public void record(double value) {
+            records++;
+        }
+
+        @Override
+        public void record(double value, Attributes attributes) {
+            records++;
+        }
+
+        @Override
+        public void record(long value) {
+            records++;
+        }
+
+        @Override
+        public void record(long value, Attributes attributes) {
+            records++;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package net.uweeisele.kafka.metrics.reporter.otel.internal.jfr;
+
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.testing.exporter.InMemoryMetricReader;
+import net.uweeisele.kafka.metrics.reporter.otel.OtelMetricsReporterConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static net.uweeisele.kafka.metrics.reporter.otel.OtelMetricsReporterConfig.JFR_CPU_PERIOD_MS_CONFIG;
+import static net.uweeisele.kafka.metrics.reporter.otel.OtelMetricsReporterConfig.JFR_ENABLED_CONFIG;
+import static net.uweeisele.kafka.metrics.reporter.otel.OtelMetricsReporterConfig.JFR_GC_THRESHOLD_MS_CONFIG;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class RuntimeTelemetryTest {
+
+    private InMemoryMetricReader metricReader;
+    private SdkMeterProvider meterProvider;
+
+    @BeforeEach
+    void setUp() {
+        metricReader = InMemoryMetricReader.create();
+        meterProvider = SdkMeterProvider.builder().registerMetricReader(metricReader).build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        meterProvider.close();
+    }
+
+    @Test
+    void shouldNotStartIfDisabled() {
+        assertNull(RuntimeTelemetry.acquire(meterProvider.get("test"), new OtelMetricsReporterConfig(Map.of())));
+    }
+
+    @Test
+    void shouldRecordGarbageCollectionsUntilLastReferenceIsReleased() throws Exception {
+        assumeTrue(Runtime.version().feature() >= 17);
+        OtelMetricsReporterConfig config = new OtelMetricsReporterConfig(Map.of(
+                JFR_ENABLED_CONFIG, "true",
+                JFR_GC_THRESHOLD_MS_CONFIG, "0",
+                JFR_CPU_PERIOD_MS_CONFIG, "100"));
+
+        AutoCloseable first = RuntimeTelemetry.acquire(meterProvider.get("test"), config);
+        AutoCloseable second = RuntimeTelemetry.acquire(meterProvider.get("test"), config);
+        assertNotNull(first);
+        assertNotNull(second);
+
+        first.close();
+        first.close();
+        assertTrue(awaitMetric("jvm.gc.pause.duration"), "GC pauses are recorded while a reference is held");
+        assertTrue(awaitMetric("jvm.cpu.utilization"), "CPU utilization is observed while a reference is held");
+        second.close();
+    }
+
+    private boolean awaitMetric(String name) throws InterruptedException {
+        long deadline = System.nanoTime() + 20_000_000_000L;
+        while (System.nanoTime() < deadline) {
+            System.gc();
+            for (MetricData metric : metricReader.collectAllMetrics()) {
+                if (metric.getName().equals(name)) {
+                    return true;
+                }
+            }
+            Thread.sleep(100);
+        }
+        return false;
+    }
+}
@@ -0,0 +1,54 @@
+package net.uweeisele.kafka.metrics.reporter.otel.internal.kafka;
+
+import io.opentelemetry.api.common.AttributeKey;
+import net.uweeisele.kafka.metrics.reporter.otel.internal.CaseType;
+import net.uweeisele.kafka.metrics.reporter.otel.internal.Context;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.metrics.KafkaMetricsContext;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class InstrumentDescriptorTest {
+
+    @ParameterizedTest
+    @CsvSource({
+            "kafka.producer, producer-metrics, record-send-total, Sum, kafka.producer.RecordSend.Sum",
+            "kafka.producer, producer-metrics, record-send-rate, Rate, kafka.producer.RecordSend.Rate",
+            "kafka.server, socket-server-metrics, successful-authentication-total, Sum, kafka.server.Socket.SuccessfulAuth.Sum",
+            "kafka.consumer, consumer-fetch-manager-metrics, records-lag-max, Max, kafka.consumer.FetchManager.RecordsLag.Max",
+            "kafka.server, kafka-metrics-count, count, '', kafka.server.Count.Count",
+            "kafka.producer, producer-node-metrics, request-latency-avg, Avg, kafka.producer.Node.RequestLatency.Avg",
+            "kafka.server, group-coordinator-metrics, offset-commit-count, Sum, kafka.server.GroupCoordinator.OffsetCommit.Sum"
+    })
+    void shouldTranslateMetricName(String namespace, String group, String name, String statType, String expectedName) {
+        InstrumentDescriptor.Builder builder = newBuilder(namespace);
+
+        InstrumentDescriptor descriptor = builder.build(new MetricName(name, group, "", Map.of()), statType);
+
+        assertEquals(expectedName, descriptor.getName());
+    }
+
+    @Test
+    void shouldReuseTranslatedNameForMetricsWhichDifferOnlyInTags() {
+        InstrumentDescriptor.Builder builder = newBuilder("kafka.consumer");
+
+        InstrumentDescriptor partition0 = builder.build(new MetricName("records-lag", "consumer-fetch-manager-metrics", "", Map.of("partition", "0", "brokerId", "1")), "Value");
+        InstrumentDescriptor partition1 = builder.build(new MetricName("records-lag", "consumer-fetch-manager-metrics", "", Map.of("partition", "1")), "Value");
+
+        assertSame(partition0.getName(), partition1.getName());
+        assertEquals("0", partition0.getAttributes().get(AttributeKey.stringKey("partition")));
+        assertNull(partition0.getAttributes().get(AttributeKey.stringKey("brokerId")));
+    }
+
+    private static InstrumentDescriptor.Builder newBuilder(String namespace) {
+        return InstrumentDescriptor.builder(new Context().setMetricsContext(new KafkaMetricsContext(namespace)))
+                .withNameManipulator(CaseType.CAMEL_CASE.getManipulator().andThen(CaseType.FIRST_UPPER_CASE.getManipulator()));
+    }
+}
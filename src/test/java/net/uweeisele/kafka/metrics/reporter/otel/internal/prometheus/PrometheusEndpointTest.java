@@ -0,0 +1,141 @@
+package net.uweeisele.kafka.metrics.reporter.otel.internal.prometheus;
+
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.MeterProvider;
+import net.uweeisele.kafka.metrics.reporter.otel.OtelMetricsReporterConfig;
+import net.uweeisele.kafka.metrics.reporter.otel.internal.instrument.InstrumentRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import static io.opentelemetry.api.common.AttributeKey.stringKey;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PrometheusEndpointTest {
+
+    private InstrumentRegistry registry;
+    private PrometheusEndpoint endpoint;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        registry = new InstrumentRegistry(MeterProvider.noop().get("test"), true);
+        endpoint = new PrometheusEndpoint(new InetSocketAddress("localhost", 0), Duration.ofMinutes(1));
+        endpoint.start();
+        endpoint.register(registry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        endpoint.close();
+        registry.close();
+    }
+
+    @Test
+    void shouldServeRegistryInOpenMetricsFormat() throws IOException {
+        registry.registerDoubleGauge("kafka.log.Log.Size", "The size of the log.", Attributes.of(stringKey("topic"), "orders", stringKey("partition"), "0"), () -> 1.5);
+        registry.registerDoubleGauge("kafka.log.Log.Size", "The size of the log.", Attributes.of(stringKey("topic"), "pay\"ments", stringKey("partition"), "0"), () -> 3.0);
+        registry.registerLongCounter("kafka.server.Requests.Count", "", Attributes.of(stringKey("client-id"), "consumer-1"), () -> 42L);
+
+        HttpURLConnection connection = connect();
+
+        assertEquals(200, connection.getResponseCode());
+        assertTrue(connection.getContentType().startsWith("application/openmetrics-text"));
+        assertEquals("# TYPE kafka_log_Log_Size gauge\n"
+                + "# HELP kafka_log_Log_Size The size of the log.\n"
+                + "kafka_log_Log_Size{partition=\"0\",topic=\"orders\"} 1.5\n"
+                + "kafka_log_Log_Size{partition=\"0\",topic=\"pay\\\"ments\"} 3\n"
+                + "# TYPE kafka_server_Requests_Count counter\n"
+                + "kafka_server_Requests_Count_total{client_id=\"consumer-1\"} 42\n"
+                + "# EOF\n", read(connection.getInputStream()));
+    }
+
+    @Test
+    void shouldShareRenderingBetweenScrapesWithinRenderInterval() throws IOException {
+        AtomicLong reads = new AtomicLong();
+        registry.registerLongCounter("kafka.server.Requests.Count", "", Attributes.empty(), reads::incrementAndGet);
+
+        String first = read(connect().getInputStream());
+        String second = read(connect().getInputStream());
+
+        assertEquals(first, second);
+        assertEquals(1L, reads.get());
+    }
+
+    @Test
+    void shouldCompressResponseIfRequested() throws IOException {
+        registry.registerLongCounter("kafka.server.Requests.Count", "", Attributes.empty(), () -> 42L);
+
+        HttpURLConnection connection = connect();
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+
+        assertEquals("gzip", connection.getHeaderField("Content-Encoding"));
+        assertEquals("# TYPE kafka_server_Requests_Count counter\n"
+                + "kafka_server_Requests_Count_total 42\n"
+                + "# EOF\n", read(new GZIPInputStream(connection.getInputStream())));
+    }
+
+    @Test
+    void shouldShareEndpointBetweenReportersUntilLastReferenceIsReleased() throws IOException {
+        OtelMetricsReporterConfig config = new OtelMetricsReporterConfig(Map.of(
+                OtelMetricsReporterConfig.PROMETHEUS_ENABLED_CONFIG, "true",
+                OtelMetricsReporterConfig.PROMETHEUS_HOST_CONFIG, "localhost",
+                OtelMetricsReporterConfig.PROMETHEUS_PORT_CONFIG, "0",
+                OtelMetricsReporterConfig.PROMETHEUS_RENDER_INTERVAL_MS_CONFIG, "0"));
+        InstrumentRegistry other = new InstrumentRegistry(MeterProvider.noop().get("other"), true);
+        registry.registerLongCounter("kafka.server.Requests.Count", "", Attributes.empty(), () -> 1L);
+        other.registerLongCounter("kafka.producer.Records.Count", "", Attributes.empty(), () -> 2L);
+
+        PrometheusEndpoint.Registrations first = PrometheusEndpoint.acquire(config);
+        PrometheusEndpoint.Registrations second = PrometheusEndpoint.acquire(config);
+        assertNotNull(first);
+        assertSame(first.endpoint(), second.endpoint());
+        int port = first.endpoint().getPort();
+        first.register(registry);
+        second.register(other);
+        assertEquals("# TYPE kafka_producer_Records_Count counter\n"
+                + "kafka_producer_Records_Count_total 2\n"
+                + "# TYPE kafka_server_Requests_Count counter\n"
+                + "kafka_server_Requests_Count_total 1\n"
+                + "# EOF\n", read(connect(port).getInputStream()));
+
+        first.close();
+        first.close();
+        assertEquals("# TYPE kafka_producer_Records_Count counter\n"
+                + "kafka_producer_Records_Count_total 2\n"
+                + "# EOF\n", read(connect(port).getInputStream()));
+
+        second.close();
+        assertThrows(ConnectException.class, () -> connect(port).getResponseCode());
+        other.close();
+    }
+
+    private HttpURLConnection connect() throws IOException {
+        return connect(endpoint.getPort());
+    }
+
+    private static HttpURLConnection connect(int port) throws IOException {
+        return (HttpURLConnection) new URL("http://localhost:" + port + "/metrics").openConnection();
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try (in) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
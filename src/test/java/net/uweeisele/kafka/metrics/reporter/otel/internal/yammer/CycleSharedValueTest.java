@@ -0,0 +1,35 @@
+package net.uweeisele.kafka.metrics.reporter.otel.internal.yammer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CycleSharedValueTest {
+
+    @Test
+    void shouldReadValueOncePerCycle() {
+        AtomicInteger reads = new AtomicInteger();
+        CycleSharedValue<Integer> value = new CycleSharedValue<>(reads::incrementAndGet);
+
+        for (int cycle = 1; cycle <= 3; cycle++) {
+            for (int consumer = 0; consumer < 6; consumer++) {
+                assertEquals(cycle, value.get(consumer));
+            }
+        }
+
+        assertEquals(3, reads.get());
+    }
+
+    @Test
+    void shouldReadAgainIfConsumerAsksTwice() {
+        AtomicInteger reads = new AtomicInteger();
+        CycleSharedValue<Integer> value = new CycleSharedValue<>(reads::incrementAndGet);
+
+        assertEquals(1, value.get(0));
+        assertEquals(1, value.get(1));
+        assertEquals(2, value.get(1));
+        assertEquals(2, value.get(0));
+    }
+}
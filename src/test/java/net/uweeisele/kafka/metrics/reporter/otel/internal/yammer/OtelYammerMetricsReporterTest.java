@@ -0,0 +1,305 @@
+package net.uweeisele.kafka.metrics.reporter.otel.internal.yammer;
+
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
+import com.yammer.metrics.core.Timer;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.metrics.data.PointData;
+import io.opentelemetry.sdk.testing.exporter.InMemoryMetricReader;
+import net.uweeisele.kafka.metrics.reporter.otel.OtelMetricsReporterConfig;
+import net.uweeisele.kafka.metrics.reporter.otel.internal.CaseType;
+import net.uweeisele.kafka.metrics.reporter.otel.internal.Context;
+import net.uweeisele.kafka.metrics.reporter.otel.internal.RegistrationExecutor;
+import net.uweeisele.kafka.metrics.reporter.otel.internal.SelfMetrics;
+import net.uweeisele.kafka.metrics.reporter.otel.internal.filter.MetricFilter;
+import net.uweeisele.kafka.metrics.reporter.otel.internal.instrument.InstrumentRegistry;
+import org.apache.kafka.common.metrics.KafkaMetricsContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.opentelemetry.api.common.AttributeKey.stringKey;
+import static java.util.stream.Collectors.toMap;
+import static java.util.stream.Collectors.toSet;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OtelYammerMetricsReporterTest {
+
+    private static final MetricName HISTOGRAM_NAME = new MetricName("kafka.network", "RequestMetrics", "RequestBytes", null, "kafka.network:type=RequestMetrics,name=RequestBytes,request=Produce");
+
+    private InMemoryMetricReader metricReader;
+    private SdkMeterProvider meterProvider;
+    private MetricsRegistry metricsRegistry;
+
+    @BeforeEach
+    void setUp() {
+        metricReader = InMemoryMetricReader.create();
+        meterProvider = SdkMeterProvider.builder().registerMetricReader(metricReader).build();
+        metricsRegistry = new MetricsRegistry();
+    }
+
+    @AfterEach
+    void tearDown() {
+        metricsRegistry.shutdown();
+        meterProvider.close();
+    }
+
+    @Test
+    void shouldExportReservoirAsSummaryAndPercentileGauges() {
+        OtelYammerMetricsReporter reporter = newReporter(Map.of());
+        metricsRegistry.addListener(reporter);
+        metricsRegistry.newHistogram(HISTOGRAM_NAME, true).update(1);
+
+        Map<String, MetricData> metrics = collect();
+
+        assertTrue(metrics.containsKey("kafka.network.RequestBytes.Max"));
+        assertEquals(6, metrics.get("kafka.network.RequestBytes").getDoubleGaugeData().getPoints().size());
+        reporter.close();
+    }
+
+    @Test
+    void shouldOnlyExportCountAndTotalDurationWithCompactMeterProfile() {
+        OtelYammerMetricsReporter reporter = newReporter(Map.of(OtelMetricsReporterConfig.YAMMER_METER_PROFILE_CONFIG, "compact"));
+        metricsRegistry.addListener(reporter);
+        Meter meter = metricsRegistry.newMeter(new MetricName("kafka.server", "BrokerTopicMetrics", "MessagesInPerSec", null,
+                "kafka.server:type=BrokerTopicMetrics,name=MessagesInPerSec"), "messages", TimeUnit.SECONDS);
+        Timer timer = metricsRegistry.newTimer(new MetricName("kafka.controller", "ControllerEventManager", "EventQueueTimeMs", null,
+                "kafka.controller:type=ControllerEventManager,name=EventQueueTimeMs"), TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
+        meter.mark(3);
+        timer.update(2, TimeUnit.MILLISECONDS);
+        timer.update(5, TimeUnit.MILLISECONDS);
+
+        Map<String, MetricData> metrics = collect();
+
+        assertEquals(Set.of("kafka.server.MessagesInPerSec.Count", "kafka.controller.EventQueueTimeMs.Count", "kafka.controller.EventQueueTimeMs.Sum"), metrics.keySet());
+        assertEquals(3L, metrics.get("kafka.server.MessagesInPerSec.Count").getLongSumData().getPoints().iterator().next().getValue());
+        assertEquals(2L, metrics.get("kafka.controller.EventQueueTimeMs.Count").getLongSumData().getPoints().iterator().next().getValue());
+        assertEquals(7.0, metrics.get("kafka.controller.EventQueueTimeMs.Sum").getDoubleSumData().getPoints().iterator().next().getValue());
+        reporter.close();
+    }
+
+    @Test
+    void shouldPublishSelfMetrics() {
+        OtelMetricsReporterConfig config = new OtelMetricsReporterConfig(Map.of(OtelMetricsReporterConfig.SELF_METRICS_ENABLED_CONFIG, true));
+        Context context = new Context().setMetricsContext(new KafkaMetricsContext("kafka.server", Map.of("kafka.broker.id", "1")));
+        OtelYammerMetricsReporter reporter = new OtelYammerMetricsReporter(meterProvider.get("test"), context, config,
+                SelfMetrics.create(meterProvider.get(SelfMetrics.METER_NAME), "yammer", context, config));
+        metricsRegistry.addListener(reporter);
+        metricsRegistry.newHistogram(HISTOGRAM_NAME, true).update(1);
+
+        collect();
+        Map<String, MetricData> metrics = collect();
+
+        assertEquals(1L, metrics.get("otel.metrics.reporter.registration.duration").getHistogramData().getPoints().iterator().next().getCount());
+        assertEquals(1L, metrics.get("otel.metrics.reporter.metrics").getLongGaugeData().getPoints().iterator().next().getValue());
+        assertEquals(3, metrics.get("otel.metrics.reporter.instruments").getLongGaugeData().getPoints().size());
+        assertEquals(12L, metrics.get("otel.metrics.reporter.series").getLongGaugeData().getPoints().iterator().next().getValue());
+        assertTrue(metrics.containsKey("otel.metrics.reporter.callback.duration"));
+        assertEquals(7, metrics.get("otel.metrics.reporter.callback.top.duration").getDoubleGaugeData().getPoints().size());
+        assertEquals(Set.of(Attributes.of(stringKey("brokerId"), "1", stringKey("namespace"), "kafka.server", stringKey("reporter"), "yammer")),
+                attributes(metrics.get("otel.metrics.reporter.metrics")));
+
+        reporter.contextChange(new Context().setMetricsContext(new KafkaMetricsContext("kafka.server", Map.of("kafka.broker.id", "2"))));
+        assertEquals(Set.of(Attributes.of(stringKey("brokerId"), "2", stringKey("namespace"), "kafka.server", stringKey("reporter"), "yammer")),
+                attributes(collect().get("otel.metrics.reporter.metrics")));
+        reporter.close();
+    }
+
+    @Test
+    void shouldResolveGaugesLazilyOnFirstCollection() {
+        OtelYammerMetricsReporter reporter = newReporter(Map.of(OtelMetricsReporterConfig.LAZY_REGISTRATION_ENABLED_CONFIG, true));
+        metricsRegistry.addListener(reporter);
+        AtomicInteger reads = new AtomicInteger();
+        metricsRegistry.newGauge(new MetricName("kafka.log", "LogManager", "OfflineLogDirectoryCount", null, "kafka.log:type=LogManager,name=OfflineLogDirectoryCount"),
+                new Gauge<Integer>() {
+                    @Override
+                    public Integer value() {
+                        return reads.incrementAndGet();
+                    }
+                });
+        metricsRegistry.newGauge(new MetricName("kafka.server", "KafkaServer", "ClusterId", null, "kafka.server:type=KafkaServer,name=ClusterId"),
+                new Gauge<String>() {
+                    @Override
+                    public String value() {
+                        return "cluster";
+                    }
+                });
+
+        assertEquals(0, reads.get());
+        assertEquals(1.0, collect().get("kafka.log.OfflineLogDirectoryCount").getDoubleGaugeData().getPoints().iterator().next().getValue());
+        Map<String, MetricData> metrics = collect();
+        assertEquals(2.0, metrics.get("kafka.log.OfflineLogDirectoryCount").getDoubleGaugeData().getPoints().iterator().next().getValue());
+        assertFalse(metrics.containsKey("kafka.server.ClusterId"));
+        reporter.close();
+    }
+
+    @Test
+    void shouldApplyReconfiguredFilterToKnownMetrics() {
+        OtelYammerMetricsReporter reporter = newReporter(Map.of(OtelMetricsReporterConfig.METRICS_EXCLUDE_CONFIG, "kafka.log.LogManager"));
+        metricsRegistry.addListener(reporter);
+        metricsRegistry.newGauge(new MetricName("kafka.log", "LogManager", "OfflineLogDirectoryCount", null, "kafka.log:type=LogManager,name=OfflineLogDirectoryCount"),
+                new Gauge<Integer>() {
+                    @Override
+                    public Integer value() {
+                        return 0;
+                    }
+                });
+        metricsRegistry.newHistogram(HISTOGRAM_NAME, true).update(1);
+        assertFalse(collect().containsKey("kafka.log.OfflineLogDirectoryCount"));
+
+        reporter.reconfigure(Map.of(OtelMetricsReporterConfig.METRICS_EXCLUDE_CONFIG, "kafka.network.RequestMetrics"));
+
+        Map<String, MetricData> metrics = collect();
+        assertTrue(metrics.containsKey("kafka.log.OfflineLogDirectoryCount"));
+        assertFalse(metrics.containsKey("kafka.network.RequestBytes.Count"));
+
+        metricsRegistry.removeMetric(HISTOGRAM_NAME);
+        reporter.reconfigure(Map.of());
+        assertEquals(1, collect().size());
+        reporter.close();
+    }
+
+    @Test
+    void shouldMoveRegisteredMetricsToAttributesOfNewContext() {
+        OtelYammerMetricsReporter reporter = newReporter(Map.of(OtelMetricsReporterConfig.BATCH_CALLBACKS_ENABLED_CONFIG, true));
+        metricsRegistry.addListener(reporter);
+        metricsRegistry.newHistogram(HISTOGRAM_NAME, true).update(1);
+        assertEquals(Set.of(Attributes.of(stringKey("type"), "RequestMetrics", stringKey("request"), "Produce")), attributes(collect().get("kafka.network.RequestBytes.Count")));
+
+        reporter.contextChange(new Context().setMetricsContext(new KafkaMetricsContext("kafka.server", Map.of("kafka.cluster.id", "cluster-1"))));
+
+        Map<String, MetricData> metrics = collect();
+        assertEquals(Set.of(Attributes.of(stringKey("clusterId"), "cluster-1", stringKey("type"), "RequestMetrics", stringKey("request"), "Produce")), attributes(metrics.get("kafka.network.RequestBytes.Count")));
+        assertEquals(1L, metrics.get("kafka.network.RequestBytes.Count").getLongSumData().getPoints().iterator().next().getValue());
+        reporter.close();
+    }
+
+    @Test
+    void shouldRekeyMetricWhichIsAddedWhileContextChanges() {
+        OtelYammerMetricsReporter reporter = newReporter(Map.of());
+        metricsRegistry.addListener(reporter);
+        Context context = new Context().setMetricsContext(new KafkaMetricsContext("kafka.server", Map.of("kafka.cluster.id", "cluster-1")));
+
+        // The context changes after the metric has been built, but before it is registered, so the context change
+        // does not find it yet.
+        metricsRegistry.newGauge(new MetricName("kafka.log", "LogManager", "OfflineLogDirectoryCount", null, "kafka.log:type=LogManager,name=OfflineLogDirectoryCount"), new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                reporter.contextChange(context);
+                return 0;
+            }
+        });
+
+        assertEquals(Set.of(Attributes.of(stringKey("clusterId"), "cluster-1", stringKey("type"), "LogManager")), attributes(collect().get("kafka.log.OfflineLogDirectoryCount")));
+        reporter.close();
+    }
+
+    @Test
+    void shouldApplyRemovalWhichIsSupersededByContextChange() {
+        PendingRegistrations registrations = new PendingRegistrations();
+        OtelYammerMetricsReporter reporter = new OtelYammerMetricsReporter(new InstrumentRegistry(meterProvider.get("test"), false),
+                InstrumentDescriptor.builder(new Context().setMetricsContext(new KafkaMetricsContext("kafka.server")))
+                        .withNameManipulator(CaseType.CAMEL_CASE.getManipulator().andThen(CaseType.FIRST_UPPER_CASE.getManipulator())),
+                registrations, MetricFilter.INCLUDE_ALL, SelfMetrics.DISABLED, false, false, 0);
+        metricsRegistry.addListener(reporter);
+        metricsRegistry.newHistogram(HISTOGRAM_NAME, true).update(1);
+        registrations.applyAll();
+        assertTrue(collect().containsKey("kafka.network.RequestBytes.Count"));
+
+        metricsRegistry.removeMetric(HISTOGRAM_NAME);
+        reporter.contextChange(new Context().setMetricsContext(new KafkaMetricsContext("kafka.server", Map.of("kafka.cluster.id", "cluster-1"))));
+
+        assertEquals(List.of(true, true), registrations.removals);
+        registrations.applyAll();
+        assertTrue(collect().isEmpty());
+        reporter.close();
+    }
+
+    @Test
+    void shouldAddExistingMetricsInBulkAndRemoveThemOnClose() {
+        for (int i = 0; i < 1500; i++) {
+            metricsRegistry.newCounter(new MetricName("kafka.log", "Log", "Segments", null, "kafka.log:type=Log,name=Segments,topic=orders,partition=" + i)).inc(i);
+        }
+        OtelYammerMetricsReporter reporter = newReporter(Map.of(OtelMetricsReporterConfig.BULK_REGISTRATION_PARALLELISM_CONFIG, 4));
+
+        reporter.listenTo(metricsRegistry);
+        metricsRegistry.newCounter(new MetricName("kafka.log", "Log", "Segments", null, "kafka.log:type=Log,name=Segments,topic=payments,partition=0"));
+
+        assertEquals(1501, collect().get("kafka.log.Segments.Count").getLongSumData().getPoints().size());
+        reporter.close();
+        assertTrue(collect().isEmpty());
+    }
+
+    @Test
+    void shouldRemoveExistingMetricWhichIsRemovedWhileItIsAdded() {
+        MetricName name = new MetricName("kafka.log", "LogManager", "OfflineLogDirectoryCount", null, "kafka.log:type=LogManager,name=OfflineLogDirectoryCount");
+        metricsRegistry.newGauge(name, new Gauge<Integer>() {
+            private boolean removed;
+
+            @Override
+            public Integer value() {
+                if (!removed) {
+                    removed = true;
+                    metricsRegistry.removeMetric(name);
+                }
+                return 0;
+            }
+        });
+        OtelYammerMetricsReporter reporter = newReporter(Map.of());
+
+        reporter.listenTo(metricsRegistry);
+
+        assertTrue(collect().isEmpty());
+        reporter.close();
+    }
+
+    /**
+     * Keeps only the latest change per metric until they are applied, like the asynchronous registration.
+     */
+    private static class PendingRegistrations implements RegistrationExecutor {
+
+        private final Map<Object, Runnable> changes = new LinkedHashMap<>();
+        private final List<Boolean> removals = new ArrayList<>();
+
+        @Override
+        public void execute(Object key, Runnable change, boolean removal) {
+            changes.put(key, change);
+            removals.add(removal);
+        }
+
+        void applyAll() {
+            List<Runnable> pending = new ArrayList<>(changes.values());
+            changes.clear();
+            removals.clear();
+            pending.forEach(Runnable::run);
+        }
+    }
+
+    private static Set<Attributes> attributes(MetricData metric) {
+        return metric.getData().getPoints().stream().map(PointData::getAttributes).collect(toSet());
+    }
+
+    private OtelYammerMetricsReporter newReporter(Map<String, ?> configs) {
+        return new OtelYammerMetricsReporter(meterProvider.get("test"),
+                new Context().setMetricsContext(new KafkaMetricsContext("kafka.server")),
+                new OtelMetricsReporterConfig(configs));
+    }
+
+    private Map<String, MetricData> collect() {
+        return metricReader.collectAllMetrics().stream().filter(m -> !m.isEmpty()).collect(toMap(MetricData::getName, m -> m));
+    }
+}